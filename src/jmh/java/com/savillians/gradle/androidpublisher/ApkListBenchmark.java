@@ -0,0 +1,139 @@
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.Apk;
+import com.google.api.services.androidpublisher.model.ApkBinary;
+import com.google.api.services.androidpublisher.model.ApksListResponse;
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.api.services.androidpublisher.model.TracksListResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing large {@code apks.list} and {@code tracks.list} responses into model objects and with the
+ * streaming parser, on their own and as part of refreshing the APK inventory over HTTP.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ApkListBenchmark {
+	private static final String PACKAGE_NAME = "com.example.benchmark";
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Param({"100", "1000", "10000"})
+	public int apkCount;
+
+	private final JsonFactory jsonFactory = AndroidPublisherHelper.getJsonFactory();
+	private byte[] apksList;
+	private byte[] tracksList;
+
+	private FakePlayServer server;
+	private HttpTransport transport;
+	private AndroidPublisher client;
+	private String editId;
+
+	@Setup
+	public void setUp() throws IOException, GeneralSecurityException {
+		ApksListResponse apks = newApksListResponse(apkCount);
+		TracksListResponse tracks = newTracksListResponse(apkCount);
+		apksList = jsonFactory.toByteArray(apks);
+		tracksList = jsonFactory.toByteArray(tracks);
+
+		server = new FakePlayServer();
+		for (Apk apk : apks.getApks()) {
+			server.addApk(PACKAGE_NAME, apk.getVersionCode(), apk.getBinary().getSha1());
+		}
+		for (Track track : tracks.getTracks()) {
+			server.setTrack(PACKAGE_NAME, track);
+		}
+		server.start();
+		RetryPolicy retryPolicy = new RetryPolicy();
+		retryPolicy.configure(RetryPolicy.DEFAULT_MAX_RETRIES, 0);
+		transport = AndroidPublisherHelper.newTransport(AndroidPublisherHelper.DEFAULT_CONNECTION_POOL_SIZE);
+		client = server.newClient(transport, retryPolicy);
+		editId = client.edits().insert(PACKAGE_NAME, null).execute().getId();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		transport.shutdown();
+		server.stop();
+	}
+
+	private static ApksListResponse newApksListResponse(int apkCount) {
+		List<Apk> apks = new ArrayList<Apk>();
+		MessageDigest digest = Digests.newSha1();
+		for (int versionCode = 1; versionCode <= apkCount; versionCode++) {
+			String sha1 = Digests.toHex(digest.digest(Integer.toString(versionCode).getBytes()));
+			apks.add(new Apk().setVersionCode(versionCode).setBinary(new ApkBinary().setSha1(sha1)));
+		}
+		return new ApksListResponse().setKind("androidpublisher#apksListResponse").setApks(apks);
+	}
+
+	/**
+	 * Spreads the version codes over the standard tracks, as a package with many APKs per release would.
+	 */
+	private static TracksListResponse newTracksListResponse(int apkCount) {
+		List<Track> tracks = new ArrayList<Track>();
+		String[] trackNames = FakeAppState.STANDARD_TRACKS;
+		for (int i = 0; i < trackNames.length; i++) {
+			List<Integer> versionCodes = new ArrayList<Integer>();
+			for (int versionCode = i + 1; versionCode <= apkCount; versionCode += trackNames.length) {
+				versionCodes.add(versionCode);
+			}
+			tracks.add(new Track().setTrack(trackNames[i]).setVersionCodes(versionCodes));
+		}
+		return new TracksListResponse().setKind("androidpublisher#tracksListResponse").setTracks(tracks);
+	}
+
+	@Benchmark
+	public ApksListResponse parseApksList() throws IOException {
+		return jsonFactory.fromInputStream(new ByteArrayInputStream(apksList), ApksListResponse.class);
+	}
+
+	@Benchmark
+	public TracksListResponse parseTracksList() throws IOException {
+		return jsonFactory.fromInputStream(new ByteArrayInputStream(tracksList), TracksListResponse.class);
+	}
+
+	@Benchmark
+	public List<ApkInventory.ApkEntry> streamApksList() throws IOException {
+		return ListResponses.parseApks(new ByteArrayInputStream(apksList), UTF_8);
+	}
+
+	@Benchmark
+	public List<Track> streamTracksList() throws IOException {
+		return ListResponses.parseTracks(new ByteArrayInputStream(tracksList), UTF_8);
+	}
+
+	@Benchmark
+	public ApkInventory refreshInventory() throws IOException {
+		ApkInventory inventory = ApkInventory.load(PACKAGE_NAME);
+		inventory.refresh(client.edits(), PACKAGE_NAME, editId);
+		return inventory;
+	}
+}
@@ -0,0 +1,70 @@
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.AppEdit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares creating a transport and client for every task with reusing the shared, pooled client, measured up to
+ * the first request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ClientSetupBenchmark {
+	private static final String PACKAGE_NAME = "com.example.benchmark";
+
+	private FakePlayServer server;
+	private RetryPolicy retryPolicy;
+	private HttpTransport sharedTransport;
+	private AndroidPublisher sharedClient;
+
+	@Setup
+	public void setUp() throws IOException, GeneralSecurityException {
+		server = new FakePlayServer();
+		server.start();
+		retryPolicy = new RetryPolicy();
+		retryPolicy.configure(RetryPolicy.DEFAULT_MAX_RETRIES, 0);
+		sharedTransport = AndroidPublisherHelper.newTransport(AndroidPublisherHelper.DEFAULT_CONNECTION_POOL_SIZE);
+		sharedClient = server.newClient(sharedTransport, retryPolicy);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		sharedTransport.shutdown();
+		server.stop();
+	}
+
+	@Benchmark
+	public AppEdit newClient() throws IOException, GeneralSecurityException {
+		HttpTransport transport = AndroidPublisherHelper.newTransport(AndroidPublisherHelper.DEFAULT_CONNECTION_POOL_SIZE);
+		try {
+			return server.newClient(transport, retryPolicy).edits().insert(PACKAGE_NAME, null).execute();
+		} finally {
+			transport.shutdown();
+		}
+	}
+
+	@Benchmark
+	public AppEdit sharedClient() throws IOException {
+		return sharedClient.edits().insert(PACKAGE_NAME, null).execute();
+	}
+}
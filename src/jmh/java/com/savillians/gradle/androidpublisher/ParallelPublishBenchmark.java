@@ -0,0 +1,158 @@
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test publishing several packages concurrently, as the {@code androidPublishTargets} task does, against a
+ * fake Google Play with network latency and randomly failing requests that have to be retried.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParallelPublishBenchmark {
+	private static final Logger LOGGER = Logging.getLogger(ParallelPublishBenchmark.class);
+	private static final int APK_SIZE = 1024 * 1024;
+
+	@Param({"8"})
+	public int packages;
+
+	@Param({"1", "4", "8"})
+	public int maxConcurrentTargets;
+
+	@Param({"0", "50"})
+	public long latencyMillis;
+
+	@Param({"0", "0.02"})
+	public double failureRate;
+
+	@Param({AndroidPublisherHelper.TRANSPORT_APACHE, AndroidPublisherHelper.TRANSPORT_OKHTTP})
+	public String transportType;
+
+	private FakePlayServer server;
+	private HttpTransport transport;
+	private AndroidPublisher client;
+	private AndroidPublisherExtension publisherExtension;
+	private ExecutorService executor;
+	private List<File> apkFiles = new ArrayList<File>();
+	private long publishes;
+
+	@Setup
+	public void setUp() throws IOException, GeneralSecurityException {
+		server = new FakePlayServer();
+		server.setLatency(latencyMillis, TimeUnit.MILLISECONDS);
+		if (failureRate > 0) {
+			server.failRandomly(FakePlayServer.ANY_OPERATION, 503, failureRate);
+		}
+		server.start();
+		RetryPolicy retryPolicy = new RetryPolicy();
+		retryPolicy.configure(RetryPolicy.DEFAULT_MAX_RETRIES, 0);
+		transport = AndroidPublisherHelper.newTransport(transportType,
+				AndroidPublisherHelper.DEFAULT_CONNECTION_POOL_SIZE);
+		client = server.newClient(transport, retryPolicy);
+
+		publisherExtension = new AndroidPublisherExtension(null);
+		publisherExtension.setSkipExistingApks(false);
+		// The payloads are random bytes, not APKs
+		publisherExtension.setVerifyApks(false);
+		// Every iteration publishes from scratch
+		publisherExtension.setResumePublications(false);
+		executor = Executors.newFixedThreadPool(maxConcurrentTargets);
+
+		byte[] content = new byte[APK_SIZE];
+		Random random = new Random(packages);
+		for (int i = 0; i < packages; i++) {
+			File apkFile = File.createTempFile("benchmark", ".apk");
+			random.nextBytes(content);
+			OutputStream out = new FileOutputStream(apkFile);
+			try {
+				out.write(content);
+			} finally {
+				out.close();
+			}
+			apkFiles.add(apkFile);
+		}
+	}
+
+	/**
+	 * Google Play rejects a binary it already has, so every publish gets a new one, like every build would.
+	 */
+	@Setup(Level.Invocation)
+	public void changeBinaries() throws IOException {
+		publishes++;
+		for (File apkFile : apkFiles) {
+			RandomAccessFile file = new RandomAccessFile(apkFile, "rw");
+			try {
+				file.writeLong(publishes);
+			} finally {
+				file.close();
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		executor.shutdownNow();
+		transport.shutdown();
+		server.stop();
+		for (File apkFile : apkFiles) {
+			apkFile.delete();
+		}
+	}
+
+	@Benchmark
+	public List<PublishReceipt> publishAll() throws IOException {
+		final PublishMetrics metrics = new PublishMetrics("benchmark");
+		List<Future<PublishReceipt>> publications = new ArrayList<Future<PublishReceipt>>();
+		for (int i = 0; i < apkFiles.size(); i++) {
+			final String packageName = "com.example.benchmark.target" + i;
+			final File apkFile = apkFiles.get(i);
+			publications.add(executor.submit(new Callable<PublishReceipt>() {
+				@Override
+				public PublishReceipt call() throws IOException {
+					return new ApkPublisher(LOGGER, publisherExtension, packageName, "benchmark", "alpha", metrics)
+							.publish(client, Collections.singletonList(apkFile));
+				}
+			}));
+		}
+		List<PublishReceipt> receipts = new ArrayList<PublishReceipt>();
+		for (Future<PublishReceipt> publication : publications) {
+			receipts.add(Futures.await(publication));
+		}
+		return receipts;
+	}
+}
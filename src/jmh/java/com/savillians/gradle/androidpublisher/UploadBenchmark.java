@@ -0,0 +1,121 @@
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the whole publish of one APK, from creating the edit to the commit, for several payload and chunk sizes of
+ * direct and resumable uploads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UploadBenchmark {
+	private static final Logger LOGGER = Logging.getLogger(UploadBenchmark.class);
+	private static final String PACKAGE_NAME = "com.example.benchmark";
+
+	@Param({"1", "10", "50"})
+	public int payloadMegabytes;
+
+	@Param({"262144", "1048576", "10485760"})
+	public int uploadChunkSize;
+
+	@Param({"true", "false"})
+	public boolean resumableUpload;
+
+	private FakePlayServer server;
+	private HttpTransport transport;
+	private AndroidPublisher client;
+	private AndroidPublisherExtension publisherExtension;
+	private File apkFile;
+	private long publishes;
+
+	@Setup
+	public void setUp() throws IOException, GeneralSecurityException {
+		server = new FakePlayServer();
+		server.start();
+		RetryPolicy retryPolicy = new RetryPolicy();
+		retryPolicy.configure(RetryPolicy.DEFAULT_MAX_RETRIES, 0);
+		transport = AndroidPublisherHelper.newTransport(AndroidPublisherHelper.DEFAULT_CONNECTION_POOL_SIZE);
+		client = server.newClient(transport, retryPolicy);
+
+		publisherExtension = new AndroidPublisherExtension(null);
+		publisherExtension.setPackageName(PACKAGE_NAME);
+		publisherExtension.setResumableUpload(resumableUpload);
+		publisherExtension.setUploadChunkSize(uploadChunkSize);
+		publisherExtension.setSkipExistingApks(false);
+		// The payloads are random bytes, not APKs
+		publisherExtension.setVerifyApks(false);
+		// Every iteration publishes from scratch
+		publisherExtension.setResumePublications(false);
+
+		// Random content, so the payload does not compress
+		apkFile = File.createTempFile("benchmark", ".apk");
+		byte[] megabyte = new byte[1024 * 1024];
+		Random random = new Random(payloadMegabytes);
+		OutputStream out = new FileOutputStream(apkFile);
+		try {
+			for (int i = 0; i < payloadMegabytes; i++) {
+				random.nextBytes(megabyte);
+				out.write(megabyte);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Google Play rejects a binary it already has, so every publish gets a new one, like every build would.
+	 */
+	@Setup(Level.Invocation)
+	public void changeBinary() throws IOException {
+		RandomAccessFile file = new RandomAccessFile(apkFile, "rw");
+		try {
+			file.writeLong(++publishes);
+		} finally {
+			file.close();
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		transport.shutdown();
+		server.stop();
+		apkFile.delete();
+	}
+
+	@Benchmark
+	public PublishReceipt publish() throws IOException {
+		return new ApkPublisher(LOGGER, publisherExtension, PACKAGE_NAME, "benchmark", "alpha",
+				new PublishMetrics("benchmark"))
+				.publish(client, Collections.singletonList(apkFile));
+	}
+}
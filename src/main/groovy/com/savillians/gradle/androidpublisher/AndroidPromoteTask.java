@@ -21,10 +21,7 @@ import com.google.api.client.repackaged.com.google.common.base.Preconditions;
 import com.google.api.client.repackaged.com.google.common.base.Strings;
 import com.google.api.services.androidpublisher.AndroidPublisher;
 import com.google.api.services.androidpublisher.AndroidPublisher.Edits;
-import com.google.api.services.androidpublisher.AndroidPublisher.Edits.Commit;
 import com.google.api.services.androidpublisher.AndroidPublisher.Edits.Insert;
-import com.google.api.services.androidpublisher.AndroidPublisher.Edits.Tracks;
-import com.google.api.services.androidpublisher.AndroidPublisher.Edits.Tracks.Update;
 import com.google.api.services.androidpublisher.model.AppEdit;
 import com.google.api.services.androidpublisher.model.Track;
 
@@ -35,13 +32,35 @@ import org.gradle.api.tasks.TaskAction;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- * Promotes an APK from one track to another.
+ * Promotes an APK from one track to another, or through a chain of tracks such as alpha, beta and rollout.
+ * <p>
+ * All tracks are read with a single request and every hop of the chain is applied to that state, so the whole chain
+ * is promoted in one edit with one commit.  Each hop moves the highest version code of its source track to its
+ * destination track, replacing the version codes of the destination track.  The rollout track gets the configured
+ * user fraction.
+ * </p>
+ * <p>
+ * The hops are applied to the same state, so a chain moves a single version code: promoting through
+ * {@code ['alpha', 'beta', 'rollout']} moves the newest alpha APK to the rollout track and leaves the beta track
+ * empty, it does not move the beta APK on to the rollout track.
+ * </p>
+ * <p>
+ * The changed tracks are updated one after the other in the order of the chain, so a version code leaves its source
+ * track before it is added to its destination track and is never in two tracks of the edit at once.
+ * </p>
  */
 public class AndroidPromoteTask extends DefaultTask {
+	static final String ROLLOUT_TRACK = "rollout";
+
 	@TaskAction
 	public void promote() {
 		AndroidPublisherExtension publisherExtension = getAndVerifyExtension();
@@ -55,15 +74,20 @@ public class AndroidPromoteTask extends DefaultTask {
 		Preconditions.checkArgument(!Strings.isNullOrEmpty(
 						publisherExtension.getApplicationName()),
 				"Application name cannot be null or empty!");
-		Preconditions.checkArgument(!Strings.isNullOrEmpty(
-						publisherExtension.getTrack()),
-				"Track cannot be null or empty!");
-		Preconditions.checkArgument(!Strings.isNullOrEmpty(
-						publisherExtension.getPromotionTrack()),
-				"Promotion track cannot be null or empty!");
-		Preconditions.checkArgument(!publisherExtension.getTrack()
-						.equals(publisherExtension.getPromotionTrack()),
-				"The publishing track cannot be the same as the promotion track!");
+		List<String> chain = getPromotionChain(publisherExtension);
+		for (String track : chain) {
+			Preconditions.checkArgument(!Strings.isNullOrEmpty(track),
+					"Track cannot be null or empty!");
+		}
+		Preconditions.checkArgument(chain.size() > 1 || chain.equals(Collections.singletonList(ROLLOUT_TRACK)),
+				"The promotion chain needs at least two tracks, or only the rollout track to update its user fraction!");
+		Preconditions.checkArgument(new HashSet<String>(chain).size() == chain.size(),
+				"A track cannot appear twice in the promotion chain!");
+		if (chain.lastIndexOf(ROLLOUT_TRACK) > 0 || chain.size() == 1) {
+			Double userFraction = publisherExtension.getUserFraction();
+			Preconditions.checkArgument(userFraction != null && userFraction > 0 && userFraction < 1,
+					"User fraction must be between 0 and 1 when promoting to the rollout track!");
+		}
 		Preconditions.checkArgument(!Strings.isNullOrEmpty(
 						publisherExtension.getPackageName()),
 				"Package name cannot be null or empty!");
@@ -72,99 +96,175 @@ public class AndroidPromoteTask extends DefaultTask {
 				"Service account email cannot be null or empty!");
 		Preconditions.checkArgument(publisherExtension.getServiceAccountKeyFile() != null,
 				"Service account key file cannot be null or empty!");
+		Preconditions.checkArgument(publisherExtension.getConnectionPoolSize() > 0,
+				"Connection pool size must be greater than zero!");
+		Preconditions.checkArgument(publisherExtension.getMaxRetries() >= 0,
+				"Max retries cannot be negative!");
 
 		return publisherExtension;
 	}
 
+	/**
+	 * Returns the configured promotion chain, or the track and promotion track if none is configured.
+	 */
+	static List<String> getPromotionChain(AndroidPublisherExtension publisherExtension) {
+		if (publisherExtension.getPromotionChain() != null && !publisherExtension.getPromotionChain().isEmpty()) {
+			return publisherExtension.getPromotionChain();
+		}
+		return Arrays.asList(publisherExtension.getTrack(), publisherExtension.getPromotionTrack());
+	}
+
 	private void promoteApk(AndroidPublisherExtension publisherExtension) {
+		List<String> chain = getPromotionChain(publisherExtension);
+		PublishMetrics metrics = new PublishMetrics(getName());
+		boolean successful = false;
+		// Phases run one after the other, a failure leaves only the last one running
+		PublishMetrics.Phase phase = null;
 		try {
-			// Create the API service
-			AndroidPublisher service = AndroidPublisherHelper.init(
-					publisherExtension.getApplicationName(),
-					publisherExtension.getServiceAccountEmail(),
-					publisherExtension.getServiceAccountKeyFile()
-			);
+			AndroidPublisher service;
+			String editId;
+			SharedEdit sharedEdit = null;
+			if (publisherExtension.isSharedEdit()) {
+				// Promote within the edit shared by all tasks of the build
+				sharedEdit = SharedEdit.open(publisherExtension, publisherExtension.getPackageName(), metrics);
+				service = sharedEdit.getService();
+				editId = sharedEdit.getEditId();
+				getLogger().info("Using shared edit with id: {}", editId);
+			} else {
+				// Create the API service
+				phase = metrics.start("authorization");
+				service = AndroidPublisherHelper.init(publisherExtension);
+				AndroidPublisherHelper.authorize(service);
+				phase.stop();
+
+				// Create a new edit to make changes to your listing
+				phase = metrics.start("edits.insert");
+				Insert editRequest = service.edits()
+						.insert(publisherExtension.getPackageName(), null /** no content */);
+				AppEdit edit = editRequest.execute();
+				phase.stop();
+				editId = edit.getId();
+				getLogger().info("Created edit with id: {}", editId);
+			}
 			final Edits edits = service.edits();
 
-			// Create a new edit to make changes to your listing
-			Insert editRequest = edits
-					.insert(publisherExtension.getPackageName(), null /** no content */);
-			AppEdit edit = editRequest.execute();
-			final String editId = edit.getId();
-			getLogger().info("Created edit with id: {}", editId);
+			// Read all tracks at once and apply every hop of the chain to them
+			phase = metrics.start("tracks.list");
+			List<Track> trackList = ListResponses.readTracks(edits.tracks()
+					.list(publisherExtension.getPackageName(), editId));
+			phase.stop();
+			Map<String, Track> tracks = new LinkedHashMap<String, Track>();
+			for (Track track : trackList) {
+				tracks.put(track.getTrack(), track);
+			}
+			Collection<Track> changedTracks = promote(tracks, chain, publisherExtension.getUserFraction());
+
+			phase = metrics.start("tracks.update");
+			updateTracks(edits, editId, changedTracks, publisherExtension.getPackageName());
+			phase.stop();
+
+			if (sharedEdit != null) {
+				getLogger().lifecycle("The promotion has been added to the shared edit");
+				successful = true;
+				return;
+			}
+
+			// Commit changes for edit.
+			phase = metrics.start("commit");
+			AppEdit appEdit = AndroidPublisherHelper.commit(edits, publisherExtension.getPackageName(), editId);
+			phase.stop();
+			getLogger().info("App edit with id {} has been committed", appEdit.getId());
+			successful = true;
+		} catch (IOException e) {
+			throw new InvalidUserDataException(
+					String.format("Exception was thrown while promoting APK through the %s tracks: %s",
+							chain, e.getMessage()),
+					e);
+		} catch (GeneralSecurityException e) {
+			throw new InvalidUserDataException(
+					String.format("Exception was thrown while promoting APK through the %s tracks: %s",
+							chain, e.getMessage()),
+					e);
+		} finally {
+			if (phase != null) {
+				phase.stop();
+			}
+			PublishReports.write(getProject(), getName(), metrics, successful, getLogger());
+		}
+	}
 
-			// Identify the source and destination tracks
-			Tracks.Get get = edits.tracks().get(publisherExtension.getPackageName(),
-					editId, publisherExtension.getTrack());
-			Track sourceTrack = get.execute();
+	/**
+	 * Applies the hops of the chain to the tracks and returns the tracks that changed.
+	 */
+	private Collection<Track> promote(Map<String, Track> tracks, List<String> chain, Double userFraction) {
+		Map<String, Track> changedTracks = new LinkedHashMap<String, Track>();
+		if (chain.size() == 1) {
+			// Only change the user fraction of the current staged rollout
+			Track rolloutTrack = tracks.get(ROLLOUT_TRACK);
+			if (rolloutTrack == null || rolloutTrack.getVersionCodes() == null
+					|| rolloutTrack.getVersionCodes().isEmpty()) {
+				throw new InvalidUserDataException("There is no staged rollout to update on Google Play");
+			}
+			rolloutTrack.setUserFraction(userFraction);
+			changedTracks.put(ROLLOUT_TRACK, rolloutTrack);
+			getLogger().lifecycle("Rollout of version codes {} has been set to a user fraction of {}",
+					rolloutTrack.getVersionCodes(), userFraction);
+		}
+		for (int i = 0; i + 1 < chain.size(); i++) {
+			Track sourceTrack = tracks.get(chain.get(i));
 
 			// Error checking
-			if (sourceTrack==null) {
+			if (sourceTrack == null) {
 				throw new InvalidUserDataException(String.format(
 						"Cannot find the %s track on Google Play, invalid track name?",
-						publisherExtension.getTrack()
+						chain.get(i)
 				));
 			}
-			if (sourceTrack.getVersionCodes().size()==0) {
+			if (sourceTrack.getVersionCodes() == null || sourceTrack.getVersionCodes().isEmpty()) {
 				throw new InvalidUserDataException(String.format(
 						"Cannot find a valid APK version code for the %s track, does it have at least one APK already uploaded?",
-						sourceTrack.getVersionCodes()
+						chain.get(i)
 				));
 			}
-			getLogger().info("Using source track {} with version codes {}",
-					sourceTrack.getTrack(), sourceTrack.getVersionCodes());
-			getLogger().info("Using destination track {} and replacing all version codes",
-					publisherExtension.getPromotionTrack());
 
 			// Find version code to promote and remove from source track
 			Integer versionCode = Collections.max(sourceTrack.getVersionCodes());
-			List<Integer> sourceVersionCodes = sourceTrack.getVersionCodes();
-			sourceVersionCodes.remove((Object)versionCode);
+			List<Integer> sourceVersionCodes = new ArrayList<Integer>(sourceTrack.getVersionCodes());
+			sourceVersionCodes.remove(versionCode);
 			sourceTrack.setVersionCodes(sourceVersionCodes);
-			List<Integer> destinationVersionCodes = new ArrayList<Integer>();
-			destinationVersionCodes.add(versionCode);
+			if (sourceVersionCodes.isEmpty()) {
+				sourceTrack.setUserFraction(null);
+			}
 
 			// Create destination track and set version codes
-			Track destinationTrack = new Track();
-			destinationTrack.setTrack(publisherExtension.getPromotionTrack());
-			destinationTrack.setVersionCodes(destinationVersionCodes);
-			getLogger().info("Promoting version code {}", versionCode);
-
-			Update sourceUpdateRequest = edits
-					.tracks()
-					.update(publisherExtension.getPackageName(),
-							editId,
-							sourceTrack.getTrack(), sourceTrack);
-			sourceUpdateRequest.execute();
-			getLogger().info("Source track {} has been updated", sourceTrack.getTrack());
-			Update destinationUpdateRequest = edits
-					.tracks()
-					.update(publisherExtension.getPackageName(),
-							editId,
-							destinationTrack.getTrack(), destinationTrack);
-			getLogger().info("Destination track {} has been updated", destinationTrack.getTrack());
-			destinationUpdateRequest.execute();
-
-			// Commit changes for edit.
-			Commit commitRequest = edits.commit(publisherExtension.getPackageName(), editId);
-			AppEdit appEdit = commitRequest.execute();
-			getLogger().info("App edit with id {} has been committed", appEdit.getId());
+			List<Integer> destinationVersionCodes = new ArrayList<Integer>();
+			destinationVersionCodes.add(versionCode);
+			Track destinationTrack = new Track()
+					.setTrack(chain.get(i + 1))
+					.setVersionCodes(destinationVersionCodes);
+			if (ROLLOUT_TRACK.equals(destinationTrack.getTrack())) {
+				destinationTrack.setUserFraction(userFraction);
+			}
+			tracks.put(destinationTrack.getTrack(), destinationTrack);
+			changedTracks.put(sourceTrack.getTrack(), sourceTrack);
+			changedTracks.put(destinationTrack.getTrack(), destinationTrack);
 			getLogger().lifecycle("Version code {} has been promoted from the {} to the {} track",
 					versionCode, sourceTrack.getTrack(), destinationTrack.getTrack());
-		} catch (IOException e) {
-			throw new InvalidUserDataException(
-					String.format("Exception was thrown while promoting APK from the %s track to the %s track: %s",
-							publisherExtension.getTrack(),
-							publisherExtension.getPromotionTrack(),
-							e.getMessage()),
-					e);
-		} catch (GeneralSecurityException e) {
-			throw new InvalidUserDataException(
-					String.format("Exception was thrown while promoting APK from the %s track to the %s track: %s",
-							publisherExtension.getTrack(),
-							publisherExtension.getPromotionTrack(),
-							e.getMessage()),
-					e);
+		}
+		return changedTracks.values();
+	}
+
+	/**
+	 * Updates the tracks in order, sources before their destinations.
+	 */
+	private void updateTracks(Edits edits, String editId, Collection<Track> tracks, String packageName)
+			throws IOException {
+		for (Track track : tracks) {
+			Track updatedTrack = edits.tracks()
+					.update(packageName, editId, track.getTrack(), track)
+					.execute();
+			getLogger().info("Track {} has been updated with version codes {}",
+					updatedTrack.getTrack(), updatedTrack.getVersionCodes());
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,139 @@
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.client.googleapis.media.MediaHttpUploader;
+import com.google.api.client.repackaged.com.google.common.base.Preconditions;
+import com.google.api.client.repackaged.com.google.common.base.Strings;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.tasks.TaskAction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Publishes the APK of every configured {@link PublicationTarget}, each in its own edit.
+ * <p>
+ * Targets are published concurrently.  Each target takes a slot of the {@link PublicationLimiter} while it publishes,
+ * so the targets and the publish tasks of the daemon together stay within the parallel publication limit.  A target
+ * that fails does not stop the others, failures are reported per package once all targets have finished.
+ * </p>
+ */
+public class AndroidPublishTargetsTask extends DefaultTask {
+	@TaskAction
+	public void publishTargets() {
+		AndroidPublisherExtension publisherExtension = getAndVerifyExtension();
+		publishAll(publisherExtension);
+	}
+
+	private AndroidPublisherExtension getAndVerifyExtension() {
+		AndroidPublisherExtension publisherExtension = getProject().getExtensions()
+				.getByType(AndroidPublisherExtension.class);
+
+		Preconditions.checkArgument(!Strings.isNullOrEmpty(
+						publisherExtension.getApplicationName()),
+				"Application name cannot be null or empty!");
+		Preconditions.checkArgument(!Strings.isNullOrEmpty(
+						publisherExtension.getServiceAccountEmail()),
+				"Service account email cannot be null or empty!");
+		Preconditions.checkArgument(publisherExtension.getServiceAccountKeyFile() != null,
+				"Service account key file cannot be null or empty!");
+		Preconditions.checkArgument(publisherExtension.getMaxConcurrentTargets() > 0,
+				"Max concurrent targets must be greater than zero!");
+		Preconditions.checkArgument(publisherExtension.getUploadChunkSize() > 0
+						&& publisherExtension.getUploadChunkSize() % MediaHttpUploader.MINIMUM_CHUNK_SIZE == 0,
+				"Upload chunk size must be a positive multiple of 256 KB!");
+		Preconditions.checkArgument(publisherExtension.getMaxConcurrentUploads() > 0,
+				"Max concurrent uploads must be greater than zero!");
+		Preconditions.checkArgument(publisherExtension.getMaxParallelPublications() > 0,
+				"Max parallel publications must be greater than zero!");
+		Preconditions.checkArgument(publisherExtension.getConnectionPoolSize() > 0,
+				"Connection pool size must be greater than zero!");
+		Preconditions.checkArgument(publisherExtension.getMaxRetries() >= 0,
+				"Max retries cannot be negative!");
+		Preconditions.checkArgument(publisherExtension.getMaxConcurrentReleaseNotes() > 0,
+				"Max concurrent release notes must be greater than zero!");
+		if (publisherExtension.getTargets().isEmpty()) {
+			throw new InvalidUserDataException("No publication targets have been configured");
+		}
+		for (PublicationTarget target : publisherExtension.getTargets()) {
+			Preconditions.checkArgument(!Strings.isNullOrEmpty(target.getPackageName()),
+					"Package name of target %s cannot be null or empty!", target.getName());
+			Preconditions.checkArgument(!Strings.isNullOrEmpty(getTrack(target, publisherExtension)),
+					"Track of target %s cannot be null or empty!", target.getName());
+			Preconditions.checkArgument(target.getApkFile() != null,
+					"APK file of target %s cannot be null!", target.getName());
+		}
+
+		return publisherExtension;
+	}
+
+	private static String getTrack(PublicationTarget target, AndroidPublisherExtension publisherExtension) {
+		return target.getTrack() != null ? target.getTrack() : publisherExtension.getTrack();
+	}
+
+	private void publishAll(final AndroidPublisherExtension publisherExtension) {
+		final PublishMetrics metrics = new PublishMetrics(getName());
+		List<PublicationTarget> targets = new ArrayList<PublicationTarget>(publisherExtension.getTargets());
+		int threads = Math.min(publisherExtension.getMaxConcurrentTargets(), targets.size());
+		getLogger().info(String.format("Publishing %d targets using %d concurrent publications",
+				targets.size(), threads));
+
+		Map<PublicationTarget, Future<PublishReceipt>> publications =
+				new LinkedHashMap<PublicationTarget, Future<PublishReceipt>>();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (final PublicationTarget target : targets) {
+				publications.put(target, executor.submit(new Callable<PublishReceipt>() {
+					@Override
+					public PublishReceipt call() throws Exception {
+						return PublicationLimiter.run(publisherExtension, getLogger(), target.getPackageName(),
+								new Callable<PublishReceipt>() {
+									@Override
+									public PublishReceipt call() throws Exception {
+										return new ApkPublisher(getLogger(), publisherExtension,
+												target.getPackageName(), getPath() + ":" + target.getName(),
+												getTrack(target, publisherExtension), metrics)
+												.publish(Collections.singletonList(target.getApkFile()));
+									}
+								});
+					}
+				}));
+			}
+
+			// Wait for every target before failing so one package does not abort the others
+			Map<String, String> failures = new LinkedHashMap<String, String>();
+			for (Map.Entry<PublicationTarget, Future<PublishReceipt>> publication : publications.entrySet()) {
+				PublicationTarget target = publication.getKey();
+				try {
+					PublishReceipt receipt = Futures.await(publication.getValue());
+					getLogger().lifecycle("Published {} to the {} track of {}",
+							target.getApkFile().getName(), receipt.track, receipt.packageName);
+				} catch (Exception e) {
+					getLogger().error(String.format("Publishing %s failed: %s", target.getPackageName(),
+							e.getMessage()), e);
+					failures.put(target.getPackageName(), e.getMessage());
+				}
+			}
+			if (!failures.isEmpty()) {
+				StringBuilder message = new StringBuilder(String.format(
+						"Publishing failed for %d of %d targets:", failures.size(), targets.size()));
+				for (Map.Entry<String, String> failure : failures.entrySet()) {
+					message.append(String.format("%n  %s: %s", failure.getKey(), failure.getValue()));
+				}
+				PublishReports.write(getProject(), getName(), metrics, false, getLogger());
+				throw new GradleException(message.toString());
+			}
+			PublishReports.write(getProject(), getName(), metrics, true, getLogger());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -18,9 +18,14 @@ package com.savillians.gradle.androidpublisher;
 
 import com.android.build.gradle.api.BaseVariantOutput;
 import org.gradle.api.DefaultTask;
-import org.gradle.api.DomainObjectSet;
 import org.gradle.api.InvalidUserDataException;
 import org.gradle.api.internal.DefaultDomainObjectSet;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 
 import java.io.File;
@@ -28,36 +33,115 @@ import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
-import com.android.build.gradle.AppExtension;
 import com.android.build.gradle.api.ApplicationVariant;
-import com.google.api.client.http.AbstractInputStreamContent;
-import com.google.api.client.http.FileContent;
+import com.google.api.client.googleapis.media.MediaHttpUploader;
 import com.google.api.client.repackaged.com.google.common.base.Preconditions;
 import com.google.api.client.repackaged.com.google.common.base.Strings;
-import com.google.api.services.androidpublisher.AndroidPublisher;
-import com.google.api.services.androidpublisher.AndroidPublisher.Edits;
-import com.google.api.services.androidpublisher.AndroidPublisher.Edits.Apks.Upload;
-import com.google.api.services.androidpublisher.AndroidPublisher.Edits.Commit;
-import com.google.api.services.androidpublisher.AndroidPublisher.Edits.Insert;
-import com.google.api.services.androidpublisher.AndroidPublisher.Edits.Tracks.Update;
-import com.google.api.services.androidpublisher.model.Apk;
-import com.google.api.services.androidpublisher.model.AppEdit;
-import com.google.api.services.androidpublisher.model.Track;
 
 /**
- * Uploads an apk to the alpha track.
+ * Uploads the apks of a variant to the configured track.
+ * <p>
+ * The {@code androidPublish} task publishes the variant and package name of the extension, the
+ * {@code androidPublish<Variant>} tasks each publish their own variant under its application id.
+ * </p>
  */
 public class AndroidPublishTask extends DefaultTask {
+	private Callable<ApplicationVariant> variant;
+	/** The variant and package published by a per-variant task, {@code null} to use the extension settings. */
+	private String variantName;
+	private String packageName;
+
 	@TaskAction
 	public void publish() {
 		AndroidPublisherExtension publisherExtension = getAndVerifyExtension();
 		publishApk(publisherExtension);
 	}
 
+	/**
+	 * The APK files of the variant, the task is up to date while they do not change.
+	 */
+	@InputFiles
+	public List<File> getApkFiles() {
+		return getApkFiles(getExtension());
+	}
+
+	@Input
+	public String getPackageName() {
+		return packageName != null ? packageName : getExtension().getPackageName();
+	}
+
+	void setPackageName(String packageName) {
+		this.packageName = packageName;
+	}
+
+	String getVariantName() {
+		return variantName != null ? variantName : getExtension().getVariantName();
+	}
+
+	void setVariantName(String variantName) {
+		this.variantName = variantName;
+	}
+
+	@Input
+	public String getTrack() {
+		return getExtension().getTrack();
+	}
+
+	@InputDirectory
+	@Optional
+	public File getReleaseNotesDir() {
+		return getExtension().getReleaseNotesDir();
+	}
+
+	@InputFile
+	@Optional
+	public File getMainExpansionFile() {
+		return getExtension().getMainExpansionFile();
+	}
+
+	@InputFile
+	@Optional
+	public File getPatchExpansionFile() {
+		return getExtension().getPatchExpansionFile();
+	}
+
+	/**
+	 * Receipt of the last successful publication, listing the edit and the version codes and hashes of its APKs.
+	 */
+	@OutputFile
+	public File getReceiptFile() {
+		String fileName = variantName != null ? "publish-receipt-" + variantName + ".json" : "publish-receipt.json";
+		return new File(getProject().getBuildDir(), "outputs/androidPublisher/" + fileName);
+	}
+
+	/**
+	 * Sets the lookup of the variant whose APKs are published.  It is only called once the task graph is built, so
+	 * the variant can be chosen by the build script and nothing is resolved in builds that do not publish.
+	 */
+	void setVariant(Callable<ApplicationVariant> variant) {
+		this.variant = variant;
+	}
+
+	/**
+	 * Returns the variant whose APKs are published, or {@code null} if the project has no such variant.
+	 */
+	ApplicationVariant findVariant() {
+		try {
+			return variant != null ? variant.call() : null;
+		} catch (Exception e) {
+			throw new InvalidUserDataException(String.format("Cannot look up the variant to publish: %s",
+					e.getMessage()), e);
+		}
+	}
+
+	private AndroidPublisherExtension getExtension() {
+		return getProject().getExtensions().getByType(AndroidPublisherExtension.class);
+	}
+
 	private AndroidPublisherExtension getAndVerifyExtension() {
-		AndroidPublisherExtension publisherExtension = getProject().getExtensions()
-				.getByType(AndroidPublisherExtension.class);
+		AndroidPublisherExtension publisherExtension = getExtension();
 
 		Preconditions.checkArgument(!Strings.isNullOrEmpty(
 						publisherExtension.getApplicationName()),
@@ -66,96 +150,83 @@ public class AndroidPublishTask extends DefaultTask {
 						publisherExtension.getTrack()),
 				"Track cannot be null or empty!");
 		Preconditions.checkArgument(!Strings.isNullOrEmpty(
-						publisherExtension.getVariantName()),
+						getVariantName()),
 				"Variant name cannot be null or empty!");
 		Preconditions.checkArgument(!Strings.isNullOrEmpty(
-						publisherExtension.getPackageName()),
+						getPackageName()),
 				"Package name cannot be null or empty!");
 		Preconditions.checkArgument(!Strings.isNullOrEmpty(
 						publisherExtension.getServiceAccountEmail()),
 				"Service account email cannot be null or empty!");
 		Preconditions.checkArgument(publisherExtension.getServiceAccountKeyFile() != null,
 				"Service account key file cannot be null or empty!");
+		Preconditions.checkArgument(publisherExtension.getUploadChunkSize() > 0
+						&& publisherExtension.getUploadChunkSize() % MediaHttpUploader.MINIMUM_CHUNK_SIZE == 0,
+				"Upload chunk size must be a positive multiple of 256 KB!");
+		Preconditions.checkArgument(publisherExtension.getMaxConcurrentUploads() > 0,
+				"Max concurrent uploads must be greater than zero!");
+		Preconditions.checkArgument(publisherExtension.getMaxParallelPublications() > 0,
+				"Max parallel publications must be greater than zero!");
+		Preconditions.checkArgument(publisherExtension.getConnectionPoolSize() > 0,
+				"Connection pool size must be greater than zero!");
+		Preconditions.checkArgument(publisherExtension.getMaxRetries() >= 0,
+				"Max retries cannot be negative!");
+		Preconditions.checkArgument(publisherExtension.getMaxConcurrentReleaseNotes() > 0,
+				"Max concurrent release notes must be greater than zero!");
+		Preconditions.checkArgument(publisherExtension.getMainExpansionFile() == null
+						|| publisherExtension.getMainExpansionFile().isFile(),
+				"Main expansion file does not exist!");
+		Preconditions.checkArgument(publisherExtension.getPatchExpansionFile() == null
+						|| publisherExtension.getPatchExpansionFile().isFile(),
+				"Patch expansion file does not exist!");
 
 		return publisherExtension;
 	}
 
-	private File getApkFile(AndroidPublisherExtension publisherExtension) {
-		String variantName = publisherExtension.getVariantName();
-		DomainObjectSet<ApplicationVariant> variants = getProject().getExtensions().getByType(AppExtension.class).getApplicationVariants();
-		ApplicationVariant variant = null;
-		getLogger().info(String.format("Looking for %s variant in outputs", variantName));
-		for (ApplicationVariant v : variants) {
-			getLogger().debug(String.format("Found variant %s", v.getName()));
-			if (v.getName().equals(variantName)) {
-				getLogger().debug(String.format("Variant %s will be used", variantName));
-				variant = v;
-				break;
-			}
-		}
+	private List<File> getApkFiles(AndroidPublisherExtension publisherExtension) {
+		String variantName = getVariantName();
+		ApplicationVariant variant = findVariant();
 		if (variant == null) {
 			throw new InvalidUserDataException(String.format(
 					"Cannot find %s variant for android configuration", variantName));
 		}
 
+		// Split APKs (ABI, density) produce one output per split, all of them are published
+		List<File> apkFiles = new ArrayList<File>();
 		for(BaseVariantOutput output : variant.getOutputs()) {
-			getLogger().debug(String.format("Found output %s (%s)", output.getName(), output.getBaseName()));
-			if (output!=null) {
-				getLogger().debug(String.format("Output %s will be used", output.getName()));
-				return output.getOutputFile();
+			if (output!=null && output.getOutputFile()!=null) {
+				getLogger().debug(String.format("Output %s (%s) will be used", output.getName(), output.getBaseName()));
+				apkFiles.add(output.getOutputFile());
 			}
 		}
-		throw new InvalidUserDataException(String.format(
-				"Cannot find APK output file for %s variant", variantName));
+		if (apkFiles.isEmpty()) {
+			throw new InvalidUserDataException(String.format(
+					"Cannot find APK output file for %s variant", variantName));
+		}
+		return apkFiles;
 	}
 
-	private void publishApk(AndroidPublisherExtension publisherExtension) {
+	private void publishApk(final AndroidPublisherExtension publisherExtension) {
+		final PublishMetrics metrics = new PublishMetrics(getName());
+		final String packageName = getPackageName();
+		final List<File> apkFiles = getApkFiles(publisherExtension);
+		boolean successful = false;
 		try {
-			// Create the API service
-			AndroidPublisher service = AndroidPublisherHelper.init(
-					publisherExtension.getApplicationName(),
-					publisherExtension.getServiceAccountEmail(),
-					publisherExtension.getServiceAccountKeyFile()
-			);
-			final Edits edits = service.edits();
-
-			// Create a new edit to make changes to your listing
-			Insert editRequest = edits
-					.insert(publisherExtension.getPackageName(), null /** no content */);
-			AppEdit edit = editRequest.execute();
-			final String editId = edit.getId();
-			getLogger().info(String.format("Created edit with id: %s", editId));
-
-			// Upload new apk to developer console
-			final File apkFile = getApkFile(publisherExtension);
-			final AbstractInputStreamContent apkFileContent =
-					new FileContent(AndroidPublisherHelper.MIME_TYPE_APK, apkFile);
-			Upload uploadRequest = edits
-					.apks()
-					.upload(publisherExtension.getPackageName(),
-							editId,
-							apkFileContent);
-			Apk apk = uploadRequest.execute();
-			getLogger().info(String.format("Version code %d has been uploaded",
-					apk.getVersionCode()));
-
-			// Assign apk to alpha track.
-			List<Integer> apkVersionCodes = new ArrayList<Integer>();
-			apkVersionCodes.add(apk.getVersionCode());
-			Update updateTrackRequest = edits
-					.tracks()
-					.update(publisherExtension.getPackageName(),
-							editId,
-							publisherExtension.getTrack(),
-							new Track().setVersionCodes(apkVersionCodes));
-			Track updatedTrack = updateTrackRequest.execute();
-			getLogger().info(String.format("Track %s has been updated", updatedTrack.getTrack()));
-
-			// Commit changes for edit.
-			Commit commitRequest = edits.commit(publisherExtension.getPackageName(), editId);
-			AppEdit appEdit = commitRequest.execute();
-			getLogger().info(String.format("App edit with id %s has been committed", appEdit.getId()));
-
+			PublishReceipt receipt = PublicationLimiter.run(publisherExtension, getLogger(), packageName,
+					new Callable<PublishReceipt>() {
+						@Override
+						public PublishReceipt call() throws Exception {
+							return new ApkPublisher(getLogger(), publisherExtension, packageName, getPath(),
+									publisherExtension.getTrack(), metrics)
+									.publish(apkFiles);
+						}
+					});
+			receipt.write(getReceiptFile());
+			if (publisherExtension.isSharedEdit()) {
+				// Publish again in the next build if the shared edit is not committed
+				SharedEdit.deleteOnRollback(packageName, getReceiptFile());
+			}
+			successful = true;
 		} catch (IOException e) {
 			throw new InvalidUserDataException(
 					String.format("Exception was thrown while uploading APK to the %s track: %s",
@@ -166,6 +237,8 @@ public class AndroidPublishTask extends DefaultTask {
 					String.format("Exception was thrown while uploading APK to the %s track: %s",
 							publisherExtension.getTrack(), e.getMessage()),
 					e);
+		} finally {
+			PublishReports.write(getProject(), getName(), metrics, successful, getLogger());
 		}
 	}
 }
\ No newline at end of file
@@ -1,5 +1,8 @@
 package com.savillians.gradle.androidpublisher;
 
+import com.google.api.client.googleapis.media.MediaHttpUploader
+import org.gradle.api.NamedDomainObjectContainer
+
 /**
  * Created by bsaville on 8/14/2014.
  */
@@ -36,8 +39,41 @@ public class AndroidPublisherExtension {
 	File serviceAccountKeyFile
 
 	/**
-	 * The name of the variant to use, defaults to "release".  The variant is a combination of the flavor and build
-	 * type and has the format "flavorBuildType", such as "fullRelease".
+	 * Whether to store access tokens on disk, defaults to false.  Tokens are always reused in memory by the tasks
+	 * of a Gradle daemon; when this is enabled, they are also saved under the user's home directory and reused by
+	 * later builds until they expire.
+	 */
+	boolean persistCredentials = false
+
+	/**
+	 * The HTTP client used to talk to Google Play by all tasks in the Gradle daemon, defaults to "apache".  Set to
+	 * "okhttp" to use OkHttp, which multiplexes concurrent requests on one HTTP/2 connection.  A task asking for
+	 * another transport than the one of the daemon replaces it for the tasks that follow.
+	 */
+	String transport = AndroidPublisherHelper.TRANSPORT_APACHE
+
+	/**
+	 * The maximum number of connections to Google Play kept open and reused by all tasks in the Gradle daemon,
+	 * defaults to 20.  Only the first task to connect in a daemon decides the pool size.
+	 */
+	int connectionPoolSize = AndroidPublisherHelper.DEFAULT_CONNECTION_POOL_SIZE
+
+	/**
+	 * The number of times a request failing with an I/O error, a rate limit error (429) or a server error (5xx) is
+	 * retried, defaults to 5.  Retries wait with exponential back-off and jitter.  Requests that are not idempotent,
+	 * such as creating or committing an edit, are only retried after a rate limit error.
+	 */
+	int maxRetries = RetryPolicy.DEFAULT_MAX_RETRIES
+
+	/**
+	 * The maximum number of requests per second sent to Google Play by all tasks in the Gradle daemon together,
+	 * defaults to 10.  Set to 0 to disable rate limiting.
+	 */
+	double maxRequestsPerSecond = RetryPolicy.DEFAULT_MAX_REQUESTS_PER_SECOND
+
+	/**
+	 * The name of the variant published by the {@code androidPublish} task, defaults to "release".  The variant is a
+	 * combination of the flavor and build type and has the format "flavorBuildType", such as "fullRelease".
 	 */
 	String variantName = "release"
 
@@ -50,4 +86,155 @@ public class AndroidPublisherExtension {
 	 * The track to promote to, default to "beta".
 	 */
 	String promotionTrack = "beta"
+
+	/**
+	 * The tracks the {@code androidPromote} task promotes an APK through in one edit, such as
+	 * {@code ['alpha', 'beta', 'rollout']}, defaults to {@link #track} and {@link #promotionTrack}.  Set it to
+	 * {@code ['rollout']} to only change the user fraction of the current staged rollout.  The chain moves a single
+	 * version code: with {@code ['alpha', 'beta', 'rollout']} the newest alpha APK ends up in the rollout track and
+	 * the beta track is left empty.
+	 */
+	List<String> promotionChain
+
+	/**
+	 * The fraction of users that receive the APK when it is promoted to the rollout track, such as 0.1.
+	 */
+	Double userFraction
+
+	/**
+	 * Whether to upload APKs using the resumable upload protocol, defaults to true.  The APK is sent in chunks of
+	 * {@link #uploadChunkSize} bytes and a chunk that fails is resumed from the last byte acknowledged by Google Play
+	 * instead of restarting the whole upload.  Set to false to send the APK in a single request.
+	 */
+	boolean resumableUpload = true
+
+	/**
+	 * The size in bytes of each chunk sent during a resumable upload, defaults to 10 MB.  Must be a multiple of
+	 * 256 KB.
+	 */
+	int uploadChunkSize = MediaHttpUploader.DEFAULT_CHUNK_SIZE
+
+	/**
+	 * The maximum number of APKs uploaded at the same time when a variant has several outputs (ABI or density
+	 * splits), defaults to 4.
+	 */
+	int maxConcurrentUploads = 4
+
+	/**
+	 * The maximum number of publications uploading at the same time in the Gradle daemon, for example the
+	 * {@code androidPublish<Variant>} tasks of several projects built with {@code --parallel} and the targets of
+	 * {@code androidPublishTargets}, defaults to 4.  A changed limit takes effect once no publication is running in the
+	 * daemon.
+	 */
+	int maxParallelPublications = 4
+
+	/**
+	 * Whether to skip uploading APKs that Google Play already has, defaults to true.  APKs are identified by their
+	 * SHA-1 hash, and the existing version code is assigned to the track instead.
+	 */
+	boolean skipExistingApks = true
+
+	/**
+	 * Whether the {@code androidPublish} task authorizes, creates its edit and reads the track state in the
+	 * background as soon as the build starts, while the APKs are still being built, defaults to false.  An edit that
+	 * is not used because the build fails is deleted at the end of the build.
+	 */
+	boolean warmUp = false
+
+	/**
+	 * Whether the package name and version code in the manifest of each APK are checked before it is uploaded,
+	 * defaults to true.  An APK of another package or reusing the version code of a binary Google Play already has
+	 * fails the task before any upload starts.
+	 */
+	boolean verifyApks = true
+
+	/**
+	 * Whether a publication that failed before its edit was committed resumes in the same edit on the next run,
+	 * defaults to true.  The edit and the completed steps, such as the uploaded APKs, are recorded in a journal under
+	 * the user's home directory, and the steps are skipped as long as Google Play keeps the edit open.  Publications
+	 * in a shared edit are not journaled.
+	 */
+	boolean resumePublications = true
+
+	/**
+	 * Whether the publish, promote, publish targets, update listing and update images tasks of a build add their
+	 * changes to one edit per package, which is committed once after the last of them ran, defaults to false.  The
+	 * edit is deleted instead if a task of the build fails.
+	 */
+	boolean sharedEdit = false
+
+	/**
+	 * The directory holding the release notes ("recent changes") of the published APKs.  It contains one file per
+	 * locale named after the locale, such as {@code en-US.txt}.  Release notes are not updated if this is not set.
+	 */
+	File releaseNotesDir
+
+	/**
+	 * The maximum number of release notes updates sent at the same time, defaults to 4.
+	 */
+	int maxConcurrentReleaseNotes = 4
+
+	/**
+	 * The main expansion file (OBB) of the published APKs, not uploaded if this is not set.  It is uploaded in
+	 * parallel with the APKs, once per publication, and every APK of the publication references it.
+	 */
+	File mainExpansionFile
+
+	/**
+	 * The patch expansion file (OBB) of the published APKs, uploaded like {@link #mainExpansionFile}.
+	 */
+	File patchExpansionFile
+
+	/**
+	 * The number of minutes the local APK inventory is used by the {@code androidListApks} task before it is
+	 * refreshed from Google Play, defaults to 60.  Set the {@code refreshInventory} project property to refresh it
+	 * regardless of its age.
+	 */
+	int inventoryMaxAge = 60
+
+	/**
+	 * The directory holding the store listings synchronized by the {@code androidUpdateListing} task.  It contains
+	 * one directory per locale, such as {@code en-US}, with the files {@code title.txt},
+	 * {@code short-description.txt}, {@code full-description.txt} and optionally {@code video.txt}.
+	 */
+	File listingsDir
+
+	/**
+	 * The maximum number of listing updates, image list or image delete requests sent in one batched HTTP request,
+	 * defaults to 50.
+	 */
+	int listingBatchSize = 50
+
+	/**
+	 * The directory holding the screenshots and graphics synchronized by the {@code androidUpdateImages} task.  It
+	 * contains one directory per locale, such as {@code en-US}, with one directory per image type, such as
+	 * {@code phoneScreenshots} or {@code featureGraphic}, holding PNG or JPEG files sorted by name.
+	 */
+	File imagesDir
+
+	/**
+	 * The maximum number of image types uploaded at the same time by the {@code androidUpdateImages} task, defaults
+	 * to 4.
+	 */
+	int maxConcurrentImageUploads = 4
+
+	/**
+	 * Additional packages published concurrently by the {@code androidPublishTargets} task, such as the white-label
+	 * builds of an application.  Each target has its own package name, track and APK file.
+	 */
+	final NamedDomainObjectContainer<PublicationTarget> targets
+
+	/**
+	 * The maximum number of targets published at the same time by the {@code androidPublishTargets} task, defaults
+	 * to 4.
+	 */
+	int maxConcurrentTargets = 4
+
+	AndroidPublisherExtension(NamedDomainObjectContainer<PublicationTarget> targets) {
+		this.targets = targets
+	}
+
+	void targets(Closure closure) {
+		targets.configure(closure)
+	}
 }
@@ -17,29 +17,41 @@
 package com.savillians.gradle.androidpublisher;
 
 import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.auth.oauth2.DataStoreCredentialRefreshListener;
+import com.google.api.client.auth.oauth2.StoredCredential;
 import com.google.api.client.extensions.java6.auth.oauth2.AuthorizationCodeInstalledApp;
 import com.google.api.client.extensions.jetty.auth.oauth2.LocalServerReceiver;
 import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
 import com.google.api.client.googleapis.auth.oauth2.GoogleClientSecrets;
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.googleapis.GoogleUtils;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponseException;
 import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.ApacheHttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.client.repackaged.com.google.common.base.Preconditions;
 import com.google.api.client.repackaged.com.google.common.base.Strings;
+import com.google.api.client.util.store.DataStore;
 import com.google.api.client.util.store.DataStoreFactory;
 import com.google.api.client.util.store.FileDataStoreFactory;
 import com.google.api.services.androidpublisher.AndroidPublisher;
 import com.google.api.services.androidpublisher.AndroidPublisherScopes;
+import com.google.api.services.androidpublisher.model.AppEdit;
 
 import java.io.File;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.params.HttpParams;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -58,6 +70,11 @@ public class AndroidPublisherHelper {
 
     static final String MIME_TYPE_APK = "application/vnd.android.package-archive";
 
+    static final int DEFAULT_CONNECTION_POOL_SIZE = 20;
+
+    /** Tokens expiring within this many seconds are refreshed, as the credential itself does. */
+    private static final long TOKEN_REFRESH_WINDOW_SECONDS = 60;
+
     /**
      * Path to the client secrets file (only used for Installed Application
      * auth).
@@ -65,8 +82,8 @@ public class AndroidPublisherHelper {
     private static final String RESOURCES_CLIENT_SECRETS_JSON = "/resources/client_secrets.json";
 
     /**
-     * Directory to store user credentials (only for Installed Application
-     * auth).
+     * Directory to store user credentials (Installed Application auth) and
+     * persisted service account access tokens.
      */
     private static final String DATA_STORE_SYSTEM_PROPERTY = "user.home";
     private static final String DATA_STORE_FILE = ".store/android_publisher_api";
@@ -76,8 +93,31 @@ public class AndroidPublisherHelper {
     /** Global instance of the JSON factory. */
     private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
 
-    /** Global instance of the HTTP transport. */
+    /**
+     * Global instance of the HTTP transport, shared by every client created by
+     * this daemon. Only accessed while holding the class lock.
+     */
     private static HttpTransport HTTP_TRANSPORT;
+    private static String httpTransportType;
+    private static int httpTransportPoolSize;
+
+    /** The pooled Apache HTTP client, one request per connection at a time. */
+    static final String TRANSPORT_APACHE = "apache";
+
+    /** OkHttp, multiplexing concurrent requests on one HTTP/2 connection. */
+    static final String TRANSPORT_OKHTTP = "okhttp";
+
+    /**
+     * API clients shared by all tasks run by this daemon, keyed by application
+     * name, service account credential and whether its tokens are persisted.
+     */
+    private static final Map<String, AndroidPublisher> CLIENTS = new HashMap<String, AndroidPublisher>();
+
+    /**
+     * Retry and rate limit settings shared by all clients, so the requests of
+     * concurrent tasks together stay below the API quota.
+     */
+    private static final RetryPolicy RETRY_POLICY = new RetryPolicy();
 
     /** Installed application user ID. */
     private static final String INST_APP_USER_ID = "user";
@@ -88,24 +128,72 @@ public class AndroidPublisherHelper {
      */
     private static FileDataStoreFactory dataStoreFactory;
 
+    /**
+     * Service account credentials shared by all tasks run by this daemon, keyed by the
+     * service account, a hash of the key file and whether tokens are persisted. A cached
+     * credential keeps its access token and only refreshes it when it is about to expire.
+     */
+    private static final Map<String, Credential> CREDENTIALS = new HashMap<String, Credential>();
+
     private static Credential authorizeWithServiceAccount(String serviceAccountEmail,
-														  File serviceAccountKeyFile)
+														  File serviceAccountKeyFile, String credentialKey,
+														  boolean persistCredentials)
             throws GeneralSecurityException, IOException {
+        String cacheKey = credentialKey + ":" + persistCredentials;
+        Credential credential = CREDENTIALS.get(cacheKey);
+        if (credential != null) {
+            log.info(String.format("Reusing cached credential for Service Account: %s", serviceAccountEmail));
+            return credential;
+        }
         log.info(String.format("Authorizing using Service Account: %s", serviceAccountEmail));
 
         // Build service account credential.
 		log.info("Using service key file: "+serviceAccountKeyFile.getAbsolutePath());
-        GoogleCredential credential = new GoogleCredential.Builder()
+        GoogleCredential.Builder builder = new GoogleCredential.Builder()
                 .setTransport(HTTP_TRANSPORT)
                 .setJsonFactory(JSON_FACTORY)
                 .setServiceAccountId(serviceAccountEmail)
                 .setServiceAccountScopes(
                         Collections.singleton(AndroidPublisherScopes.ANDROIDPUBLISHER))
-                .setServiceAccountPrivateKeyFromP12File(serviceAccountKeyFile)
-                .build();
+                .setServiceAccountPrivateKeyFromP12File(serviceAccountKeyFile);
+
+        StoredCredential storedCredential = null;
+        if (persistCredentials) {
+            // Persist refreshed tokens so the next build can skip the token request
+            DataStore<StoredCredential> dataStore = StoredCredential.getDefaultDataStore(getDataStoreFactory());
+            builder.addRefreshListener(new DataStoreCredentialRefreshListener(credentialKey, dataStore));
+            storedCredential = dataStore.get(credentialKey);
+        }
+        credential = builder.build();
+        if (storedCredential != null && storedCredential.getAccessToken() != null) {
+            log.info(String.format("Using stored access token from %s", DATA_STORE_DIR));
+            credential.setAccessToken(storedCredential.getAccessToken());
+            credential.setExpirationTimeMilliseconds(storedCredential.getExpirationTimeMilliseconds());
+        }
+
+        CREDENTIALS.put(cacheKey, credential);
         return credential;
     }
 
+    /**
+     * Directory shared by all builds of this user to keep local state such as
+     * persisted tokens and the index of APKs known to Google Play.
+     */
+    static File getDataStoreDir() {
+        return DATA_STORE_DIR;
+    }
+
+    static JsonFactory getJsonFactory() {
+        return JSON_FACTORY;
+    }
+
+    private static FileDataStoreFactory getDataStoreFactory() throws IOException {
+        if (null == dataStoreFactory) {
+            dataStoreFactory = new FileDataStoreFactory(DATA_STORE_DIR);
+        }
+        return dataStoreFactory;
+    }
+
     /**
      * Ensure the client secrets file has been filled out.
      *
@@ -134,24 +222,198 @@ public class AndroidPublisherHelper {
     protected static AndroidPublisher init(String applicationName,
             String serviceAccountEmail, File serviceAccountKeyFile)
 				throws IOException, GeneralSecurityException {
+        return init(applicationName, serviceAccountEmail, serviceAccountKeyFile, false, TRANSPORT_APACHE,
+                DEFAULT_CONNECTION_POOL_SIZE);
+    }
+
+    /**
+     * Performs all necessary setup steps for running requests against the API
+     * using the settings of the given extension.
+     *
+     * @param publisherExtension the plugin configuration
+     * @return the {@Link AndroidPublisher} service
+     * @throws GeneralSecurityException
+     * @throws IOException
+     */
+    protected static AndroidPublisher init(AndroidPublisherExtension publisherExtension)
+				throws IOException, GeneralSecurityException {
+        Preconditions.checkArgument(TRANSPORT_APACHE.equals(publisherExtension.getTransport())
+                        || TRANSPORT_OKHTTP.equals(publisherExtension.getTransport()),
+                "Transport must be \"apache\" or \"okhttp\"!");
+        RETRY_POLICY.configure(publisherExtension.getMaxRetries(), publisherExtension.getMaxRequestsPerSecond());
+        return init(publisherExtension.getApplicationName(),
+                publisherExtension.getServiceAccountEmail(),
+                publisherExtension.getServiceAccountKeyFile(),
+                publisherExtension.isPersistCredentials(),
+                publisherExtension.getTransport(),
+                publisherExtension.getConnectionPoolSize());
+    }
+
+    /**
+     * Performs all necessary setup steps for running requests against the API.
+     * <p>
+     * The returned client is shared by all tasks run by this daemon that use the
+     * same application name and service account, and all clients share one
+     * pooled HTTP transport, so connections to Google Play are kept alive and
+     * reused across tasks and projects. The first call decides the pool size.
+     * A call asking for another transport type replaces the shared transport
+     * and clients, tasks already holding a client keep using the old one.
+     * </p>
+     *
+     * @param applicationName the name of the application: com.example.app
+     * @param serviceAccountEmail the Service Account Email (empty if using
+     *            installed application)
+     * @param persistCredentials whether access tokens are also stored on disk
+     *            so they can be reused by later builds until they expire
+     * @param transport the HTTP client, {@link #TRANSPORT_APACHE} or
+     *            {@link #TRANSPORT_OKHTTP}
+     * @param connectionPoolSize the maximum number of connections kept open
+     * @return the {@Link AndroidPublisher} service
+     * @throws GeneralSecurityException
+     * @throws IOException
+     */
+    protected static synchronized AndroidPublisher init(String applicationName,
+            String serviceAccountEmail, File serviceAccountKeyFile, boolean persistCredentials,
+            String transport, int connectionPoolSize)
+				throws IOException, GeneralSecurityException {
         Preconditions.checkArgument(!Strings.isNullOrEmpty(applicationName),
                 "Application name cannot be null or empty!");
 
+        newTrustedTransport(transport, connectionPoolSize);
+        String credentialKey = serviceAccountEmail + ":" + Digests.sha1Hex(serviceAccountKeyFile);
+        String clientKey = applicationName + ":" + credentialKey + ":" + persistCredentials;
+        AndroidPublisher client = CLIENTS.get(clientKey);
+        if (client != null) {
+            return client;
+        }
+
         // Authorization.
-        newTrustedTransport();
-        Credential credential = authorizeWithServiceAccount(serviceAccountEmail, serviceAccountKeyFile);
+        Credential credential = authorizeWithServiceAccount(serviceAccountEmail, serviceAccountKeyFile,
+                credentialKey, persistCredentials);
+
+        // Set up and return API client, retrying failed requests so resumable uploads can continue.
+        client = newClient(applicationName, HTTP_TRANSPORT, credential, RETRY_POLICY, null);
+        CLIENTS.put(clientKey, client);
+        return client;
+    }
+
+    /**
+     * Creates an API client that is not shared with other tasks.
+     *
+     * @param retryPolicy the retry and rate limit settings of the client
+     * @param rootUrl the root URL of the API, such as a local fake of Google
+     *            Play, or {@code null} for Google Play itself
+     */
+    static AndroidPublisher newClient(String applicationName, HttpTransport transport,
+            Credential credential, RetryPolicy retryPolicy, @Nullable String rootUrl) {
+        AndroidPublisher.Builder builder = new AndroidPublisher.Builder(
+                transport, JSON_FACTORY, new BackOffRequestInitializer(credential, retryPolicy))
+                .setApplicationName(applicationName);
+        if (rootUrl != null) {
+            builder.setRootUrl(rootUrl);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Fetches an access token for the client unless it already has one that is
+     * not about to expire. Tokens are otherwise fetched by the first request,
+     * calling this first lets authorization be measured on its own.
+     */
+    static void authorize(AndroidPublisher client) throws IOException {
+        HttpRequestInitializer initializer = client.getRequestFactory().getInitializer();
+        if (initializer instanceof BackOffRequestInitializer) {
+            Credential credential = ((BackOffRequestInitializer) initializer).getCredential();
+            Long expiresInSeconds = credential.getExpiresInSeconds();
+            if (credential.getAccessToken() == null
+                    || (expiresInSeconds != null && expiresInSeconds <= TOKEN_REFRESH_WINDOW_SECONDS)) {
+                credential.refreshToken();
+            }
+        }
+    }
+
+    /**
+     * Commits the edit. Commits are not retried after a server or I/O error,
+     * so such a failure is reported as a commit that may have been applied.
+     */
+    static AppEdit commit(AndroidPublisher.Edits edits, String packageName, String editId) throws IOException {
+        try {
+            return edits.commit(packageName, editId).execute();
+        } catch (HttpResponseException e) {
+            if (e.getStatusCode() / 100 == 4) {
+                throw e;
+            }
+            throw uncertainCommit(packageName, editId, e.getStatusCode() + " " + e.getStatusMessage(), e);
+        } catch (IOException e) {
+            throw uncertainCommit(packageName, editId, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Deletes an edit that is not going to be committed. A failure is only
+     * logged, Google Play deletes abandoned edits when they expire.
+     */
+    static void deleteEdit(AndroidPublisher.Edits edits, String packageName, String editId) {
+        try {
+            edits.delete(packageName, editId).execute();
+        } catch (IOException e) {
+            log.info(String.format("Unable to delete edit %s of %s: %s", editId, packageName, e.getMessage()));
+        }
+    }
 
-        // Set up and return API client.
-        return new AndroidPublisher.Builder(
-                HTTP_TRANSPORT, JSON_FACTORY, credential).setApplicationName(applicationName)
-                .build();
+    private static IOException uncertainCommit(String packageName, String editId, String reason, IOException e) {
+        return new IOException(String.format("The commit of edit %s of %s failed without a definite answer from "
+                + "Google Play (%s) and may have been applied: check the tracks of the app in the Google Play "
+                + "Developer Console before publishing again", editId, packageName, reason), e);
     }
 
-    private static void newTrustedTransport() throws GeneralSecurityException,
-            IOException {
+    private static void newTrustedTransport(String transport, int connectionPoolSize)
+            throws GeneralSecurityException, IOException {
         if (null == HTTP_TRANSPORT) {
-            HTTP_TRANSPORT = GoogleNetHttpTransport.newTrustedTransport();
+            log.info(String.format("Creating %s HTTP transport with a pool of %d connections", transport,
+                    connectionPoolSize));
+            HTTP_TRANSPORT = newTransport(transport, connectionPoolSize);
+        } else if (!httpTransportType.equals(transport)) {
+            // The old transport is not shut down, clients of running tasks may still be sending requests with it.
+            // Cached credentials refresh their tokens with the transport they were built with, drop them too
+            log.info(String.format("Replacing %s HTTP transport with %s with a pool of %d connections",
+                    httpTransportType, transport, connectionPoolSize));
+            HTTP_TRANSPORT = newTransport(transport, connectionPoolSize);
+            CLIENTS.clear();
+            CREDENTIALS.clear();
+        } else if (httpTransportPoolSize != connectionPoolSize) {
+            log.info(String.format("Reusing %s HTTP transport with a pool of %d connections, ignoring %s with %d",
+                    httpTransportType, httpTransportPoolSize, transport, connectionPoolSize));
+            return;
+        }
+        httpTransportType = transport;
+        httpTransportPoolSize = connectionPoolSize;
+    }
+
+    /**
+     * Creates a pooled HTTP transport that trusts the certificates of Google
+     * Play, not shared with other tasks.
+     */
+    static HttpTransport newTransport(int connectionPoolSize) throws GeneralSecurityException, IOException {
+        return newTransport(TRANSPORT_APACHE, connectionPoolSize);
+    }
+
+    /**
+     * Creates an HTTP transport of the given type that trusts the certificates
+     * of Google Play, not shared with other tasks.
+     */
+    static HttpTransport newTransport(String transport, int connectionPoolSize)
+            throws GeneralSecurityException, IOException {
+        if (TRANSPORT_OKHTTP.equals(transport)) {
+            return OkHttpTransport.create(connectionPoolSize, GoogleUtils.getCertificateTrustStore());
         }
+        ApacheHttpTransport.Builder builder = new ApacheHttpTransport.Builder()
+                .trustCertificates(GoogleUtils.getCertificateTrustStore());
+        // All requests go to the same host, so the whole pool is available to that route
+        HttpParams params = builder.getHttpParams();
+        ConnManagerParams.setMaxTotalConnections(params, connectionPoolSize);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(connectionPoolSize));
+        return builder.build();
     }
 
-}
\ No newline at end of file
+}
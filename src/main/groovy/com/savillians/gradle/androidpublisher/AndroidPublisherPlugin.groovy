@@ -17,30 +17,137 @@
 package com.savillians.gradle.androidpublisher
 
 import com.android.build.gradle.AppPlugin;
+import com.android.build.gradle.api.ApplicationVariant;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.util.concurrent.Callable;
+
 public class AndroidPublisherPlugin implements Plugin<Project> {
 	private static final String TASK_GROUP = "Android"
+	private static final String BUILD_FINISHED_LISTENER = "androidPublisherBuildFinishedListener"
+	private static final String COMMIT_SHARED_EDIT_TASK = "androidCommitSharedEdit"
+	private static final String VARIANT_PUBLISH_TASK_PREFIX = "androidPublish"
 
 	@Override
 	public void apply(Project project) {
 		if (!project.getPlugins().findPlugin(AppPlugin.class))
 			throw new RuntimeException("The android publisher plugin may only be applied to android application projects (apply: 'android')")
 
-		project.getExtensions().create("androidPublisher", AndroidPublisherExtension.class);
+		AndroidPublisherExtension publisherExtension = project.getExtensions().create("androidPublisher",
+				AndroidPublisherExtension.class, project.container(PublicationTarget.class));
 
 		AndroidPublishTask publishTask = project.getTasks().create("androidPublish", AndroidPublishTask.class);
 		publishTask.setGroup(TASK_GROUP);
 		publishTask.setDescription("Publishes a release APK to Google Play");
-		publishTask.dependsOn(project.getTasksByName("assembleRelease", false));
+		// The variant is only looked up when the task graph contains the task, after the build script chose it
+		publishTask.variant = {
+			project.android.applicationVariants.find { it.name == publisherExtension.variantName }
+		} as Callable<ApplicationVariant>
+		// Build the APKs of the configured variant, which are the inputs of the task
+		publishTask.dependsOn {
+			publishTask.findVariant()?.assemble ?: []
+		}
+		// Prepare the edits while the APKs are being built
+		project.gradle.taskGraph.whenReady { taskGraph ->
+			if (!publisherExtension.warmUp || !publisherExtension.serviceAccountKeyFile) {
+				return
+			}
+			project.tasks.withType(AndroidPublishTask).findAll { taskGraph.hasTask(it) }.each { task ->
+				if (task.packageName) {
+					EditWarmUp.start(publisherExtension, task.packageName)
+				}
+			}
+		}
+		addBuildFinishedListener(project)
 
 		AndroidPromoteTask promoteTask = project.getTasks().create("androidPromote", AndroidPromoteTask.class);
 		promoteTask.setGroup(TASK_GROUP);
 		promoteTask.setDescription("Promotes an APK in Google Play from one track to another");
 
+		AndroidPublishTargetsTask publishTargetsTask = project.getTasks().create("androidPublishTargets",
+				AndroidPublishTargetsTask.class);
+		publishTargetsTask.setGroup(TASK_GROUP);
+		publishTargetsTask.setDescription("Publishes the APKs of all configured targets to Google Play");
+
+		ListApksTask listApksTask = project.getTasks().create("androidListApks", ListApksTask.class);
+		listApksTask.setGroup(TASK_GROUP);
+		listApksTask.setDescription("Lists the APKs in Google Play with their hashes and tracks");
+
+		UpdateListingTask updateListingTask = project.getTasks().create("androidUpdateListing", UpdateListingTask.class);
+		updateListingTask.setGroup(TASK_GROUP);
+		updateListingTask.setDescription("Updates the store listings in Google Play that differ from the listings directory");
+
+		UpdateImagesTask updateImagesTask = project.getTasks().create("androidUpdateImages", UpdateImagesTask.class);
+		updateImagesTask.setGroup(TASK_GROUP);
+		updateImagesTask.setDescription("Updates the screenshots and graphics in Google Play that differ from the images directory");
+
+		CommitSharedEditTask commitSharedEditTask = getCommitSharedEditTask(project)
+		[publishTask, promoteTask, publishTargetsTask, updateListingTask, updateImagesTask]*.finalizedBy(commitSharedEditTask)
+
+		// One publish task per release variant, such as androidPublishFreeRelease, publishing it under its
+		// application id.  The tasks are created by a rule when a build asks for them, so builds with many modules
+		// and variants do not configure publish tasks they never run.
+		project.getTasks().addRule("Pattern: ${VARIANT_PUBLISH_TASK_PREFIX}<Variant>: Publishes the APKs of a release variant to Google Play") { String taskName ->
+			if (!taskName.startsWith(VARIANT_PUBLISH_TASK_PREFIX)) {
+				return
+			}
+			ApplicationVariant variant = project.android.applicationVariants.find {
+				// Google Play rejects debuggable APKs
+				!it.buildType.debuggable && taskName == VARIANT_PUBLISH_TASK_PREFIX + it.name.capitalize()
+			}
+			if (variant) {
+				createVariantPublishTask(project, variant, taskName, commitSharedEditTask)
+			}
+		}
+	}
+
+	private static void createVariantPublishTask(Project project, ApplicationVariant variant, String taskName,
+												 CommitSharedEditTask commitSharedEditTask) {
+		AndroidPublishTask variantPublishTask = project.getTasks().create(taskName, AndroidPublishTask.class);
+		variantPublishTask.setGroup(TASK_GROUP);
+		variantPublishTask.setDescription("Publishes the ${variant.name} APKs to Google Play");
+		variantPublishTask.variantName = variant.name
+		variantPublishTask.packageName = variant.applicationId
+		variantPublishTask.variant = { variant } as Callable<ApplicationVariant>
+		variantPublishTask.dependsOn variant.assemble
+		variantPublishTask.finalizedBy(commitSharedEditTask)
+	}
+
+	/**
+	 * Returns the task committing the shared edits, created once on the root project.  A single task finalizing the
+	 * publisher tasks of all projects runs after every one of them, so the edit of a package is not committed while
+	 * the tasks of another project are still adding to it.
+	 */
+	private static CommitSharedEditTask getCommitSharedEditTask(Project project) {
+		Project rootProject = project.rootProject
+		CommitSharedEditTask commitSharedEditTask = rootProject.tasks.findByName(COMMIT_SHARED_EDIT_TASK)
+		if (commitSharedEditTask) {
+			return commitSharedEditTask
+		}
+		commitSharedEditTask = rootProject.getTasks().create(COMMIT_SHARED_EDIT_TASK, CommitSharedEditTask.class);
+		commitSharedEditTask.setGroup(TASK_GROUP);
+		commitSharedEditTask.setDescription("Commits the edits shared by the publisher tasks of the build");
+		commitSharedEditTask.onlyIf { SharedEdit.hasOpenEdits() }
+		return commitSharedEditTask
+	}
+
+	/**
+	 * Cleans up the edits once per build, however many projects apply the plugin.
+	 */
+	private static void addBuildFinishedListener(Project project) {
+		def extraProperties = project.rootProject.extensions.extraProperties
+		if (extraProperties.has(BUILD_FINISHED_LISTENER)) {
+			return
+		}
+		extraProperties.set(BUILD_FINISHED_LISTENER, true)
+		project.gradle.buildFinished {
+			// Edits the commit task did not get to, for example when the build was interrupted
+			SharedEdit.finishBuild()
+			EditWarmUp.discardUnclaimed()
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,250 @@
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.util.Key;
+import com.google.api.services.androidpublisher.AndroidPublisher.Edits;
+import com.google.api.services.androidpublisher.model.Track;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Local inventory of the APKs known to Google Play for a package, stored in the user's data store directory.
+ * <p>
+ * Binaries on Google Play never change once uploaded, so an entry stays valid forever and only its track membership
+ * changes. The inventory is only refreshed from {@code apks.list} when a hash or version code is encountered that
+ * is not known yet; track membership is refreshed from the much smaller {@code tracks.list} response.  Both
+ * responses are streamed by {@link ListResponses}, which only keeps the fields stored here.
+ * </p>
+ */
+class ApkInventory {
+	private static final Log log = LogFactory.getLog(ApkInventory.class);
+
+	private final File file;
+	private final Snapshot snapshot;
+	private boolean refreshed;
+
+	private ApkInventory(File file, Snapshot snapshot) {
+		this.file = file;
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Loads the inventory of the given package, starting with an empty one if none was saved yet or the saved one
+	 * cannot be read.
+	 */
+	static ApkInventory load(String packageName) {
+		File file = new File(new File(AndroidPublisherHelper.getDataStoreDir(), "apks"), packageName + ".json");
+		Snapshot snapshot = null;
+		if (file.isFile()) {
+			try {
+				InputStream in = new FileInputStream(file);
+				try {
+					snapshot = AndroidPublisherHelper.getJsonFactory().fromInputStream(in, Snapshot.class);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				log.warn(String.format("Ignoring unreadable APK inventory %s: %s", file, e.getMessage()));
+			}
+		}
+		if (snapshot == null) {
+			snapshot = new Snapshot();
+		}
+		if (snapshot.apks == null) {
+			snapshot.apks = new ArrayList<ApkEntry>();
+		}
+		// An entry without a version code cannot be matched or ordered, it is added again by the next refresh
+		for (Iterator<ApkEntry> it = snapshot.apks.iterator(); it.hasNext();) {
+			if (it.next().versionCode == null) {
+				log.warn(String.format("Ignoring APK without a version code in APK inventory %s", file));
+				it.remove();
+			}
+		}
+		return new ApkInventory(file, snapshot);
+	}
+
+	/**
+	 * Finds the version code of the binary with the given hash, refreshing the inventory from Google Play once if the
+	 * hash is not known locally.
+	 *
+	 * @return the version code or {@code null} if Google Play does not have the binary
+	 */
+	synchronized Integer findVersionCode(String sha1, Edits edits, String packageName, String editId)
+			throws IOException {
+		Integer versionCode = findVersionCode(sha1);
+		if (versionCode == null && !refreshed) {
+			refresh(edits, packageName, editId);
+			versionCode = findVersionCode(sha1);
+		}
+		return versionCode;
+	}
+
+	synchronized Integer findVersionCode(String sha1) {
+		for (ApkEntry entry : snapshot.apks) {
+			if (sha1.equalsIgnoreCase(entry.sha1)) {
+				return entry.versionCode;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the known binary with the given version code, or {@code null} if the inventory does not know it.
+	 */
+	synchronized ApkEntry getApk(int versionCode) {
+		return findEntry(versionCode);
+	}
+
+	synchronized void put(int versionCode, String sha1) {
+		ApkEntry entry = findEntry(versionCode);
+		if (entry != null) {
+			entry.sha1 = sha1;
+			return;
+		}
+		entry = new ApkEntry();
+		entry.versionCode = versionCode;
+		entry.sha1 = sha1;
+		snapshot.apks.add(entry);
+	}
+
+	/**
+	 * Replaces the known binaries with the ones listed by Google Play.
+	 */
+	synchronized void refresh(Edits edits, String packageName, String editId) throws IOException {
+		log.info(String.format("Refreshing APK inventory of %s from Google Play", packageName));
+		List<ApkEntry> apks = ListResponses.readApks(edits.apks().list(packageName, editId));
+		for (ApkEntry entry : apks) {
+			ApkEntry known = findEntry(entry.versionCode);
+			entry.tracks = known != null ? known.tracks : null;
+		}
+		snapshot.apks = apks;
+		refreshed = true;
+	}
+
+	/**
+	 * Refreshes the track membership of all APKs from a single {@code tracks.list} request. The APK list is only
+	 * fetched as well when a track references a version code the inventory does not know yet.
+	 */
+	synchronized void refreshTracks(Edits edits, String packageName, String editId) throws IOException {
+		log.info(String.format("Refreshing tracks of %s from Google Play", packageName));
+		List<Track> tracks = ListResponses.readTracks(edits.tracks().list(packageName, editId));
+
+		boolean unknownVersionCode = false;
+		for (Track track : tracks) {
+			if (track.getVersionCodes() != null) {
+				for (Integer versionCode : track.getVersionCodes()) {
+					unknownVersionCode |= findEntry(versionCode) == null;
+				}
+			}
+		}
+		if (unknownVersionCode && !refreshed) {
+			refresh(edits, packageName, editId);
+		}
+
+		for (ApkEntry entry : snapshot.apks) {
+			entry.tracks = new ArrayList<String>();
+			for (Track track : tracks) {
+				if (track.getVersionCodes() != null && track.getVersionCodes().contains(entry.versionCode)) {
+					entry.tracks.add(track.getTrack());
+				}
+			}
+		}
+		snapshot.updated = System.currentTimeMillis();
+	}
+
+	/**
+	 * Whether the track membership was refreshed less than the given number of milliseconds ago.
+	 */
+	synchronized boolean isFresh(long maxAgeMillis) {
+		return snapshot.updated != null && System.currentTimeMillis() - snapshot.updated < maxAgeMillis;
+	}
+
+	/**
+	 * Returns the known APKs ordered by version code.
+	 */
+	synchronized List<ApkEntry> getApks() {
+		List<ApkEntry> apks = new ArrayList<ApkEntry>(snapshot.apks);
+		Collections.sort(apks, new Comparator<ApkEntry>() {
+			@Override
+			public int compare(ApkEntry first, ApkEntry second) {
+				return first.versionCode.compareTo(second.versionCode);
+			}
+		});
+		return apks;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	private ApkEntry findEntry(Integer versionCode) {
+		for (ApkEntry entry : snapshot.apks) {
+			if (entry.versionCode != null && entry.versionCode.equals(versionCode)) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Writes the inventory to a temporary file first so concurrent builds never read a partial file.
+	 */
+	synchronized void save() throws IOException {
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Unable to create directory " + dir);
+		}
+		File tempFile = File.createTempFile(file.getName(), ".tmp", dir);
+		JsonFactory jsonFactory = AndroidPublisherHelper.getJsonFactory();
+		OutputStream out = new FileOutputStream(tempFile);
+		try {
+			out.write(jsonFactory.toPrettyString(snapshot).getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+			tempFile.delete();
+			throw new IOException("Unable to write APK inventory " + file);
+		}
+	}
+
+	/**
+	 * JSON representation of the inventory file.
+	 */
+	public static class Snapshot extends GenericJson {
+		/** Time in milliseconds the track membership was last refreshed. */
+		@Key
+		Long updated;
+
+		@Key
+		List<ApkEntry> apks;
+	}
+
+	/**
+	 * A binary known to Google Play.
+	 */
+	public static class ApkEntry extends GenericJson {
+		@Key
+		Integer versionCode;
+
+		@Key
+		String sha1;
+
+		/** Tracks the APK was assigned to when the inventory was last refreshed. */
+		@Key
+		List<String> tracks;
+	}
+}
@@ -0,0 +1,297 @@
+package com.savillians.gradle.androidpublisher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * The package name, version code and minimum SDK version of an APK, read from its binary {@code AndroidManifest.xml}.
+ * <p>
+ * The APK is memory-mapped and only the central directory and the manifest entry are read, so even a large APK is
+ * checked in milliseconds without aapt.  The manifest is in the binary XML format of the Android build tools: a string
+ * pool, a map from strings to resource ids and a chunk per element holding its typed attribute values.
+ * </p>
+ */
+class ApkManifest {
+	private static final String MANIFEST_ENTRY = "AndroidManifest.xml";
+
+	private static final int EOCD_SIGNATURE = 0x06054b50;
+	private static final int EOCD_SIZE = 22;
+	private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int METHOD_STORED = 0;
+	private static final int METHOD_DEFLATED = 8;
+
+	private static final int CHUNK_XML = 0x0003;
+	private static final int CHUNK_STRING_POOL = 0x0001;
+	private static final int CHUNK_RESOURCE_MAP = 0x0180;
+	private static final int CHUNK_START_ELEMENT = 0x0102;
+	private static final int UTF8_FLAG = 1 << 8;
+	private static final int TYPE_STRING = 0x03;
+	private static final int TYPE_INT_DEC = 0x10;
+	private static final int TYPE_INT_HEX = 0x11;
+
+	/** Resource ids of {@code android:versionCode} and {@code android:minSdkVersion}. */
+	private static final int ATTR_VERSION_CODE = 0x0101021b;
+	private static final int ATTR_MIN_SDK_VERSION = 0x0101020c;
+
+	final String packageName;
+	final Integer versionCode;
+	/** The minimum SDK version, {@code null} if the manifest does not declare a numeric one. */
+	final Integer minSdkVersion;
+
+	ApkManifest(String packageName, Integer versionCode, Integer minSdkVersion) {
+		this.packageName = packageName;
+		this.versionCode = versionCode;
+		this.minSdkVersion = minSdkVersion;
+	}
+
+	static ApkManifest read(File apkFile) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(apkFile, "r");
+		try {
+			MappedByteBuffer apk = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			apk.order(ByteOrder.LITTLE_ENDIAN);
+			return parse(readManifestEntry(apk, apkFile), apkFile);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException(String.format("%s is not a valid APK: truncated data", apkFile.getName()), e);
+		} catch (IllegalArgumentException e) {
+			throw new IOException(String.format("%s is not a valid APK: invalid offset", apkFile.getName()), e);
+		} finally {
+			file.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("package %s, version code %s, min SDK %s", packageName, versionCode,
+				minSdkVersion != null ? minSdkVersion : "not set");
+	}
+
+	/**
+	 * Finds the manifest in the central directory of the zip file and returns its uncompressed contents.
+	 */
+	private static ByteBuffer readManifestEntry(ByteBuffer apk, File apkFile) throws IOException {
+		// The end of central directory record is followed by a comment of up to 64 KB
+		int eocd = -1;
+		int lowest = Math.max(0, apk.limit() - EOCD_SIZE - 0xffff);
+		for (int offset = apk.limit() - EOCD_SIZE; offset >= lowest; offset--) {
+			if (apk.getInt(offset) == EOCD_SIGNATURE) {
+				eocd = offset;
+				break;
+			}
+		}
+		if (eocd < 0) {
+			throw new IOException(String.format("%s is not a valid APK: not a zip file", apkFile.getName()));
+		}
+
+		int entries = apk.getShort(eocd + 10) & 0xffff;
+		int offset = apk.getInt(eocd + 16);
+		for (int i = 0; i < entries; i++) {
+			if (apk.getInt(offset) != CENTRAL_DIRECTORY_SIGNATURE) {
+				throw new IOException(String.format("%s is not a valid APK: corrupt central directory",
+						apkFile.getName()));
+			}
+			int method = apk.getShort(offset + 10) & 0xffff;
+			int compressedSize = apk.getInt(offset + 20);
+			int size = apk.getInt(offset + 24);
+			int nameLength = apk.getShort(offset + 28) & 0xffff;
+			int extraLength = apk.getShort(offset + 30) & 0xffff;
+			int commentLength = apk.getShort(offset + 32) & 0xffff;
+			int localHeader = apk.getInt(offset + 42);
+			if (MANIFEST_ENTRY.equals(readAscii(apk, offset + 46, nameLength))) {
+				return readEntry(apk, apkFile, method, compressedSize, size, localHeader);
+			}
+			offset += 46 + nameLength + extraLength + commentLength;
+		}
+		throw new IOException(String.format("%s is not a valid APK: it has no %s", apkFile.getName(),
+				MANIFEST_ENTRY));
+	}
+
+	private static ByteBuffer readEntry(ByteBuffer apk, File apkFile, int method, int compressedSize, int size,
+										int localHeader) throws IOException {
+		if (apk.getInt(localHeader) != LOCAL_HEADER_SIGNATURE) {
+			throw new IOException(String.format("%s is not a valid APK: corrupt %s entry", apkFile.getName(),
+					MANIFEST_ENTRY));
+		}
+		int dataOffset = localHeader + 30 + (apk.getShort(localHeader + 26) & 0xffff)
+				+ (apk.getShort(localHeader + 28) & 0xffff);
+		ByteBuffer data = apk.duplicate();
+		data.position(dataOffset);
+		data.limit(dataOffset + compressedSize);
+		if (method == METHOD_STORED) {
+			return data.slice().order(ByteOrder.LITTLE_ENDIAN);
+		}
+		if (method != METHOD_DEFLATED) {
+			throw new IOException(String.format("%s is not a valid APK: %s uses compression method %d",
+					apkFile.getName(), MANIFEST_ENTRY, method));
+		}
+
+		byte[] compressed = new byte[compressedSize];
+		data.get(compressed);
+		byte[] manifest = new byte[size];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(compressed);
+			int inflated = 0;
+			while (inflated < size && !inflater.finished()) {
+				int read = inflater.inflate(manifest, inflated, size - inflated);
+				if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				inflated += read;
+			}
+			if (inflated != size) {
+				throw new IOException(String.format("%s is not a valid APK: truncated %s", apkFile.getName(),
+						MANIFEST_ENTRY));
+			}
+		} catch (DataFormatException e) {
+			throw new IOException(String.format("%s is not a valid APK: corrupt %s", apkFile.getName(),
+					MANIFEST_ENTRY), e);
+		} finally {
+			inflater.end();
+		}
+		return ByteBuffer.wrap(manifest).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Reads the package name from the {@code manifest} element and the version code and minimum SDK version from
+	 * the attributes in the android namespace, which are identified by their resource ids.
+	 */
+	private static ApkManifest parse(ByteBuffer xml, File apkFile) throws IOException {
+		if ((xml.getShort(0) & 0xffff) != CHUNK_XML) {
+			throw new IOException(String.format("%s is not a valid APK: %s is not binary XML", apkFile.getName(),
+					MANIFEST_ENTRY));
+		}
+		String[] strings = new String[0];
+		int[] resourceIds = new int[0];
+		String packageName = null;
+		Integer versionCode = null;
+		Integer minSdkVersion = null;
+
+		int chunk = xml.getShort(2) & 0xffff;
+		while (chunk + 8 <= xml.limit()) {
+			int type = xml.getShort(chunk) & 0xffff;
+			int headerSize = xml.getShort(chunk + 2) & 0xffff;
+			int size = xml.getInt(chunk + 4);
+			if (size < 8) {
+				break;
+			}
+			if (type == CHUNK_STRING_POOL) {
+				strings = readStringPool(xml, chunk, headerSize);
+			} else if (type == CHUNK_RESOURCE_MAP) {
+				resourceIds = new int[(size - headerSize) / 4];
+				for (int i = 0; i < resourceIds.length; i++) {
+					resourceIds[i] = xml.getInt(chunk + headerSize + i * 4);
+				}
+			} else if (type == CHUNK_START_ELEMENT) {
+				int element = chunk + headerSize;
+				String name = string(strings, xml.getInt(element + 4));
+				int attributeStart = xml.getShort(element + 8) & 0xffff;
+				int attributeSize = xml.getShort(element + 10) & 0xffff;
+				int attributeCount = xml.getShort(element + 12) & 0xffff;
+				for (int i = 0; i < attributeCount; i++) {
+					int attribute = element + attributeStart + i * attributeSize;
+					int nameIndex = xml.getInt(attribute + 4);
+					int resourceId = nameIndex >= 0 && nameIndex < resourceIds.length ? resourceIds[nameIndex] : 0;
+					if ("manifest".equals(name) && "package".equals(string(strings, nameIndex))) {
+						packageName = string(strings, xml.getInt(attribute + 8));
+					} else if ("manifest".equals(name) && resourceId == ATTR_VERSION_CODE) {
+						versionCode = intValue(xml, attribute, strings);
+					} else if ("uses-sdk".equals(name) && resourceId == ATTR_MIN_SDK_VERSION) {
+						minSdkVersion = intValue(xml, attribute, strings);
+					}
+				}
+			}
+			chunk += size;
+		}
+
+		if (packageName == null || versionCode == null) {
+			throw new IOException(String.format("%s is not a valid APK: %s has no package name or version code",
+					apkFile.getName(), MANIFEST_ENTRY));
+		}
+		return new ApkManifest(packageName, versionCode, minSdkVersion);
+	}
+
+	private static String[] readStringPool(ByteBuffer xml, int chunk, int headerSize) throws IOException {
+		int count = xml.getInt(chunk + 8);
+		boolean utf8 = (xml.getInt(chunk + 16) & UTF8_FLAG) != 0;
+		int stringsStart = chunk + xml.getInt(chunk + 20);
+		String[] strings = new String[count];
+		for (int i = 0; i < count; i++) {
+			int offset = stringsStart + xml.getInt(chunk + headerSize + i * 4);
+			strings[i] = utf8 ? readUtf8(xml, offset) : readUtf16(xml, offset);
+		}
+		return strings;
+	}
+
+	private static String readUtf8(ByteBuffer xml, int offset) throws IOException {
+		// The length in characters precedes the length in bytes, each in one or two bytes
+		offset += (xml.get(offset) & 0x80) != 0 ? 2 : 1;
+		int length = xml.get(offset) & 0xff;
+		if ((length & 0x80) != 0) {
+			length = ((length & 0x7f) << 8) | (xml.get(offset + 1) & 0xff);
+			offset += 2;
+		} else {
+			offset += 1;
+		}
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = xml.get(offset + i);
+		}
+		return new String(bytes, "UTF-8");
+	}
+
+	private static String readUtf16(ByteBuffer xml, int offset) {
+		int length = xml.getShort(offset) & 0xffff;
+		if ((length & 0x8000) != 0) {
+			length = ((length & 0x7fff) << 16) | (xml.getShort(offset + 2) & 0xffff);
+			offset += 4;
+		} else {
+			offset += 2;
+		}
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = xml.getChar(offset + i * 2);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Returns an integer attribute, which may also be written as a string such as {@code "21"}.
+	 *
+	 * @return the value or {@code null} if it is not a number, such as the code name of a preview SDK
+	 */
+	private static Integer intValue(ByteBuffer xml, int attribute, String[] strings) {
+		int dataType = xml.get(attribute + 15) & 0xff;
+		int data = xml.getInt(attribute + 16);
+		if (dataType == TYPE_INT_DEC || dataType == TYPE_INT_HEX) {
+			return data;
+		}
+		if (dataType == TYPE_STRING) {
+			try {
+				return Integer.valueOf(string(strings, data));
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	private static String string(String[] strings, int index) {
+		return index >= 0 && index < strings.length ? strings[index] : null;
+	}
+
+	private static String readAscii(ByteBuffer buffer, int offset, int length) {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) (buffer.get(offset + i) & 0xff);
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,630 @@
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.client.googleapis.media.MediaHttpUploader;
+import com.google.api.client.http.AbstractInputStreamContent;
+import com.google.api.client.http.FileContent;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.AndroidPublisher.Edits;
+import com.google.api.services.androidpublisher.AndroidPublisher.Edits.Apks.Upload;
+import com.google.api.services.androidpublisher.AndroidPublisher.Edits.Expansionfiles;
+import com.google.api.services.androidpublisher.AndroidPublisher.Edits.Insert;
+import com.google.api.services.androidpublisher.AndroidPublisher.Edits.Tracks.Update;
+import com.google.api.services.androidpublisher.model.Apk;
+import com.google.api.services.androidpublisher.model.ApkBinary;
+import com.google.api.services.androidpublisher.model.ApkListing;
+import com.google.api.services.androidpublisher.model.AppEdit;
+import com.google.api.services.androidpublisher.model.ExpansionFile;
+import com.google.api.services.androidpublisher.model.Track;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Publishes APKs of one package to a track: creates an edit, uploads the APKs and their release notes, assigns them
+ * to the track and commits the edit.
+ */
+class ApkPublisher {
+	static final String EXPANSION_FILE_MAIN = "main";
+	static final String EXPANSION_FILE_PATCH = "patch";
+	private static final String MIME_TYPE_EXPANSION_FILE = "application/octet-stream";
+
+	private final Logger logger;
+	private final AndroidPublisherExtension publisherExtension;
+	private final String packageName;
+	private final String publication;
+	private final String track;
+	private final PublishMetrics metrics;
+
+	/**
+	 * @param publication the name of the publication, such as the path of the task, which keeps the journals of
+	 *            publications of the same package apart
+	 */
+	ApkPublisher(Logger logger, AndroidPublisherExtension publisherExtension, String packageName, String publication,
+				 String track, PublishMetrics metrics) {
+		this.logger = logger;
+		this.publisherExtension = publisherExtension;
+		this.packageName = packageName;
+		this.publication = publication;
+		this.track = track;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Publishes the APK files and returns the receipt of the committed edit.
+	 */
+	PublishReceipt publish(List<File> apkFiles) throws IOException, GeneralSecurityException {
+		List<ApkManifest> manifests = verifyManifests(apkFiles);
+
+		// Add the APKs to the edit shared by all tasks of the build, it is committed when they are done
+		if (publisherExtension.isSharedEdit()) {
+			SharedEdit sharedEdit = SharedEdit.open(publisherExtension, packageName, metrics);
+			logger.info(String.format("Using shared edit with id: %s", sharedEdit.getEditId()));
+			return publish(sharedEdit.getEdits(), sharedEdit.getEditId(), sharedEdit.getInventory(), apkFiles,
+					manifests, sharedEdit, null);
+		}
+
+		// Continue an interrupted publication in its edit, if Google Play still has it
+		if (publisherExtension.isResumePublications()) {
+			PublishReceipt receipt = resume(apkFiles, manifests);
+			if (receipt != null) {
+				return receipt;
+			}
+		}
+
+		// Use the edit prepared while the APKs were built, if any
+		if (EditWarmUp.isStarted(packageName)) {
+			PublishMetrics.Phase phase = metrics.start("warm-up");
+			EditWarmUp.PreparedEdit prepared;
+			try {
+				prepared = EditWarmUp.claim(packageName);
+			} finally {
+				phase.stop();
+			}
+			if (prepared != null) {
+				logger.info(String.format("Using warmed up edit with id: %s", prepared.editId));
+				return publish(prepared.service.edits(), prepared.editId, prepared.inventory, apkFiles, manifests,
+						null, startJournal(prepared.editId));
+			}
+		}
+
+		// Create the API service
+		return publish(authorize(), apkFiles, manifests);
+	}
+
+	/**
+	 * Publishes the APK files using the given API client and returns the receipt of the committed edit.
+	 */
+	PublishReceipt publish(AndroidPublisher service, List<File> apkFiles) throws IOException {
+		return publish(service, apkFiles, verifyManifests(apkFiles));
+	}
+
+	private PublishReceipt publish(AndroidPublisher service, List<File> apkFiles, List<ApkManifest> manifests)
+			throws IOException {
+		final Edits edits = service.edits();
+
+		// Create a new edit to make changes to your listing
+		PublishMetrics.Phase phase = metrics.start("edits.insert");
+		AppEdit edit;
+		try {
+			Insert editRequest = edits
+					.insert(packageName, null /** no content */);
+			edit = editRequest.execute();
+		} finally {
+			phase.stop();
+		}
+		final String editId = edit.getId();
+		logger.info(String.format("Created edit with id: %s", editId));
+		return publish(edits, editId, ApkInventory.load(packageName), apkFiles, manifests, null,
+				startJournal(editId));
+	}
+
+	/**
+	 * Publishes the APK files in the edit of the journal of an interrupted publication, skipping the steps it
+	 * completed.
+	 *
+	 * @return the receipt of the committed edit, or {@code null} if there is no journal or its edit is gone
+	 */
+	private PublishReceipt resume(List<File> apkFiles, List<ApkManifest> manifests)
+			throws IOException, GeneralSecurityException {
+		PublishJournal journal = PublishJournal.load(packageName, publication, track);
+		if (journal == null) {
+			return null;
+		}
+		AndroidPublisher service = authorize();
+		PublishMetrics.Phase phase = metrics.start("edits.get");
+		try {
+			service.edits().get(packageName, journal.getEditId()).execute();
+		} catch (HttpResponseException e) {
+			if (e.getStatusCode() < 400 || e.getStatusCode() >= 500) {
+				throw e;
+			}
+			// The edit expired or was closed by another commit
+			logger.info(String.format("Edit %s of the interrupted publication is gone, starting over: %s",
+					journal.getEditId(), e.getMessage()));
+			journal.delete();
+			return null;
+		} finally {
+			phase.stop();
+		}
+		logger.lifecycle(String.format("Resuming the interrupted publication in edit %s", journal.getEditId()));
+		return publish(service.edits(), journal.getEditId(), ApkInventory.load(packageName), apkFiles, manifests,
+				null, journal);
+	}
+
+	private AndroidPublisher authorize() throws IOException, GeneralSecurityException {
+		PublishMetrics.Phase phase = metrics.start("authorization");
+		try {
+			AndroidPublisher service = AndroidPublisherHelper.init(publisherExtension);
+			AndroidPublisherHelper.authorize(service);
+			return service;
+		} finally {
+			phase.stop();
+		}
+	}
+
+	private PublishJournal startJournal(String editId) throws IOException {
+		return publisherExtension.isResumePublications()
+				? PublishJournal.start(packageName, publication, track, editId) : null;
+	}
+
+	private PublishReceipt publish(Edits edits, String editId, ApkInventory inventory, List<File> apkFiles,
+								   List<ApkManifest> manifests, SharedEdit sharedEdit, PublishJournal journal)
+			throws IOException {
+		List<String> sha1s = hashApks(apkFiles);
+		verifyVersionCodes(apkFiles, sha1s, manifests, inventory);
+
+		// Upload new apks to developer console
+		Map<String, String> releaseNotes = readReleaseNotes();
+		List<Apk> apks = uploadApks(edits, editId, apkFiles, sha1s, inventory, releaseNotes, journal);
+
+		// Assign all apks to the track in a single update.
+		List<Integer> apkVersionCodes = new ArrayList<Integer>();
+		for (Apk apk : apks) {
+			apkVersionCodes.add(apk.getVersionCode());
+		}
+		if (journal != null && journal.isTrackUpdated(apkVersionCodes)) {
+			logger.info(String.format("Track %s was already updated with version codes %s", track, apkVersionCodes));
+		} else {
+			PublishMetrics.Phase phase = metrics.start("tracks.update");
+			Track updatedTrack;
+			try {
+				Update updateTrackRequest = edits
+						.tracks()
+						.update(packageName,
+								editId,
+								track,
+								new Track().setVersionCodes(apkVersionCodes));
+				updatedTrack = updateTrackRequest.execute();
+			} finally {
+				phase.stop();
+			}
+			logger.info(String.format("Track %s has been updated with version codes %s",
+					updatedTrack.getTrack(), apkVersionCodes));
+			if (journal != null) {
+				journal.trackUpdated(apkVersionCodes);
+			}
+		}
+
+		if (sharedEdit != null) {
+			sharedEdit.addUploadedApks(apks);
+			logger.lifecycle(String.format("Version codes %s have been added to the shared edit", apkVersionCodes));
+			return new PublishReceipt(packageName, track, editId, apks);
+		}
+
+		// Commit changes for edit.
+		PublishMetrics.Phase phase = metrics.start("commit");
+		AppEdit appEdit;
+		try {
+			appEdit = AndroidPublisherHelper.commit(edits, packageName, editId);
+		} finally {
+			phase.stop();
+		}
+		logger.info(String.format("App edit with id %s has been committed", appEdit.getId()));
+		if (journal != null) {
+			journal.delete();
+		}
+
+		// Only committed binaries are kept by Google Play, remember them for the next run
+		saveInventory(inventory, apks);
+		return new PublishReceipt(packageName, track, appEdit.getId(), apks);
+	}
+
+	/**
+	 * Reads the manifests of the APKs and checks their package name and that no two of them share a version code,
+	 * so a wrong artifact fails before anything is sent to Google Play.
+	 *
+	 * @return the manifests in the order of the files, or an empty list if verification is disabled
+	 */
+	private List<ApkManifest> verifyManifests(List<File> apkFiles) throws IOException {
+		List<ApkManifest> manifests = new ArrayList<ApkManifest>();
+		if (!publisherExtension.isVerifyApks()) {
+			return manifests;
+		}
+		Map<Integer, File> versionCodes = new TreeMap<Integer, File>();
+		for (File apkFile : apkFiles) {
+			ApkManifest manifest = ApkManifest.read(apkFile);
+			logger.info(String.format("%s has %s", apkFile.getName(), manifest));
+			if (!packageName.equals(manifest.packageName)) {
+				throw new InvalidUserDataException(String.format(
+						"%s has the package name %s, but %s is being published",
+						apkFile.getName(), manifest.packageName, packageName));
+			}
+			File other = versionCodes.put(manifest.versionCode, apkFile);
+			if (other != null) {
+				throw new InvalidUserDataException(String.format(
+						"%s and %s have the same version code %d, split APKs need distinct version codes",
+						other.getName(), apkFile.getName(), manifest.versionCode));
+			}
+			manifests.add(manifest);
+		}
+		return manifests;
+	}
+
+	/**
+	 * Hashes each APK once, for the checks against the binaries Google Play has and for the uploads.
+	 *
+	 * @return the SHA-1 hashes in the order of the files
+	 */
+	private List<String> hashApks(List<File> apkFiles) throws IOException {
+		PublishMetrics.Phase phase = metrics.start("hash");
+		try {
+			List<String> sha1s = new ArrayList<String>();
+			for (File apkFile : apkFiles) {
+				sha1s.add(Digests.sha1Hex(apkFile));
+			}
+			return sha1s;
+		} finally {
+			phase.stop();
+		}
+	}
+
+	/**
+	 * Checks the version codes of the APKs against the binaries Google Play is known to have, as the same version
+	 * code cannot be uploaded twice with a different binary.
+	 */
+	private void verifyVersionCodes(List<File> apkFiles, List<String> sha1s, List<ApkManifest> manifests,
+									ApkInventory inventory) {
+		for (int i = 0; i < manifests.size(); i++) {
+			ApkInventory.ApkEntry known = inventory.getApk(manifests.get(i).versionCode);
+			if (known == null || known.sha1 == null) {
+				continue;
+			}
+			File apkFile = apkFiles.get(i);
+			if (!known.sha1.equalsIgnoreCase(sha1s.get(i))) {
+				throw new InvalidUserDataException(String.format(
+						"Version code %d of %s is already used by another binary on Google Play%s",
+						known.versionCode, apkFile.getName(),
+						known.tracks != null && !known.tracks.isEmpty() ? " in the " + known.tracks + " tracks" : ""));
+			}
+		}
+	}
+
+	private List<Apk> uploadApks(final Edits edits, final String editId, List<File> apkFiles, List<String> sha1s,
+								 final ApkInventory inventory, final Map<String, String> releaseNotes,
+								 final PublishJournal journal) throws IOException {
+		int threads = Math.max(1, Math.min(publisherExtension.getMaxConcurrentUploads(), apkFiles.size()));
+		logger.info(String.format("Uploading %d APKs using %d concurrent uploads", apkFiles.size(), threads));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final ExecutorService notesExecutor = releaseNotes.isEmpty() ? null
+				: Executors.newFixedThreadPool(publisherExtension.getMaxConcurrentReleaseNotes());
+		final List<Future<ApkListing>> notesUpdates =
+				Collections.synchronizedList(new ArrayList<Future<ApkListing>>());
+		Map<String, File> expansionFiles = getExpansionFiles();
+		final ExpansionFileUploads expansionUploads = expansionFiles.isEmpty() ? null
+				: new ExpansionFileUploads(edits, editId, expansionFiles, journal);
+		try {
+			List<Future<Apk>> uploads = new ArrayList<Future<Apk>>();
+			for (int i = 0; i < apkFiles.size(); i++) {
+				final File apkFile = apkFiles.get(i);
+				final String sha1 = sha1s.get(i);
+				uploads.add(executor.submit(new Callable<Apk>() {
+					@Override
+					public Apk call() throws IOException {
+						Apk apk = uploadApk(edits, editId, apkFile, sha1, inventory, journal);
+						// Send the release notes of this APK while the remaining APKs are still uploading
+						if (notesExecutor != null) {
+							notesUpdates.addAll(updateReleaseNotes(notesExecutor, edits, editId,
+									apk.getVersionCode(), releaseNotes));
+						}
+						// The first APK in the edit gets the expansion files, while the others are uploading
+						if (expansionUploads != null) {
+							expansionUploads.attach(apk.getVersionCode());
+						}
+						return apk;
+					}
+				}));
+			}
+			List<Apk> apks = new ArrayList<Apk>();
+			for (Future<Apk> upload : uploads) {
+				apks.add(Futures.await(upload));
+			}
+			for (Future<ApkListing> notesUpdate : new ArrayList<Future<ApkListing>>(notesUpdates)) {
+				Futures.await(notesUpdate);
+			}
+			if (expansionUploads != null) {
+				expansionUploads.finish();
+			}
+			return apks;
+		} finally {
+			executor.shutdownNow();
+			if (notesExecutor != null) {
+				notesExecutor.shutdownNow();
+			}
+			if (expansionUploads != null) {
+				expansionUploads.executor.shutdownNow();
+			}
+		}
+	}
+
+	private List<Future<ApkListing>> updateReleaseNotes(ExecutorService notesExecutor, final Edits edits,
+														final String editId, final int versionCode,
+														Map<String, String> releaseNotes) {
+		List<Future<ApkListing>> notesUpdates = new ArrayList<Future<ApkListing>>();
+		for (final Map.Entry<String, String> notes : releaseNotes.entrySet()) {
+			notesUpdates.add(notesExecutor.submit(new Callable<ApkListing>() {
+				@Override
+				public ApkListing call() throws IOException {
+					PublishMetrics.Phase phase = metrics.start("apklistings.update");
+					ApkListing apkListing;
+					try {
+						apkListing = edits.apklistings()
+								.update(packageName, editId, versionCode, notes.getKey(),
+										new ApkListing().setRecentChanges(notes.getValue()))
+								.execute();
+					} finally {
+						phase.stop();
+					}
+					logger.info(String.format("Release notes for %s of version code %d have been updated",
+							notes.getKey(), versionCode));
+					return apkListing;
+				}
+			}));
+		}
+		return notesUpdates;
+	}
+
+	/**
+	 * Returns the configured expansion files by their type.
+	 */
+	private Map<String, File> getExpansionFiles() {
+		Map<String, File> expansionFiles = new LinkedHashMap<String, File>();
+		if (publisherExtension.getMainExpansionFile() != null) {
+			expansionFiles.put(EXPANSION_FILE_MAIN, publisherExtension.getMainExpansionFile());
+		}
+		if (publisherExtension.getPatchExpansionFile() != null) {
+			expansionFiles.put(EXPANSION_FILE_PATCH, publisherExtension.getPatchExpansionFile());
+		}
+		return expansionFiles;
+	}
+
+	/**
+	 * Reads the release notes of each locale from the files named after the locale, such as {@code en-US.txt}, in
+	 * the release notes directory.
+	 */
+	private Map<String, String> readReleaseNotes() throws IOException {
+		Map<String, String> releaseNotes = new TreeMap<String, String>();
+		File releaseNotesDir = publisherExtension.getReleaseNotesDir();
+		File[] files = releaseNotesDir != null ? releaseNotesDir.listFiles() : null;
+		if (files == null) {
+			return releaseNotes;
+		}
+		for (File file : files) {
+			if (file.isFile() && file.getName().endsWith(".txt")) {
+				String locale = file.getName().substring(0, file.getName().length() - ".txt".length());
+				releaseNotes.put(locale, TextFiles.readText(file));
+			}
+		}
+		logger.info(String.format("Read release notes for %d locales from %s", releaseNotes.size(),
+				releaseNotesDir));
+		return releaseNotes;
+	}
+
+	private Apk uploadApk(Edits edits, String editId, File apkFile, String sha1, ApkInventory inventory,
+						  PublishJournal journal) throws IOException {
+		if (journal != null) {
+			Apk uploaded = journal.getUploadedApk(sha1);
+			if (uploaded != null) {
+				logger.lifecycle(String.format("Skipping upload of %s, it was uploaded to the edit as version code %d",
+						apkFile.getName(), uploaded.getVersionCode()));
+				return uploaded;
+			}
+		}
+
+		// Google Play keeps every binary, an APK it already has only needs its version code
+		if (publisherExtension.isSkipExistingApks()) {
+			Integer versionCode = inventory.findVersionCode(sha1, edits, packageName, editId);
+			if (versionCode != null) {
+				logger.lifecycle(String.format("Skipping upload of %s, Google Play already has it as version code %d",
+						apkFile.getName(), versionCode));
+				return new Apk().setVersionCode(versionCode).setBinary(new ApkBinary().setSha1(sha1));
+			}
+		}
+
+		final AbstractInputStreamContent apkFileContent =
+				new FileContent(AndroidPublisherHelper.MIME_TYPE_APK, apkFile);
+		Upload uploadRequest = edits
+				.apks()
+				.upload(packageName,
+						editId,
+						apkFileContent);
+		configureUpload(uploadRequest.getMediaHttpUploader(), apkFile);
+		PublishMetrics.Phase phase = metrics.start("upload");
+		Apk apk;
+		try {
+			apk = uploadRequest.execute();
+			phase.stop(apkFile.length());
+		} finally {
+			phase.stop();
+		}
+		logger.info(String.format("Version code %d has been uploaded from %s",
+				apk.getVersionCode(), apkFile.getName()));
+		if (apk.getBinary() == null) {
+			apk.setBinary(new ApkBinary().setSha1(sha1));
+		}
+		if (journal != null) {
+			journal.apkUploaded(apk);
+		}
+		return apk;
+	}
+
+	/**
+	 * Uploads the main and patch expansion files of a publication once, in parallel with each other and with the
+	 * APKs that are still uploading.  Every other APK of the publication references the uploaded files.
+	 * <p>
+	 * When resuming a publication, a file the journal has with the same hash is not uploaded again and only the APKs
+	 * that do not reference it yet get a reference.  A file that changed since is uploaded again.
+	 * </p>
+	 */
+	private class ExpansionFileUploads {
+		final ExecutorService executor;
+		private final Edits edits;
+		private final String editId;
+		private final PublishJournal journal;
+		/** Files to upload by type, and their hashes if there is a journal. */
+		private final Map<String, File> files = new LinkedHashMap<String, File>();
+		private final Map<String, String> hashes = new HashMap<String, String>();
+		/** Version codes the journal has the files of each type uploaded to. */
+		private final Map<String, Integer> uploadedVersionCodes = new LinkedHashMap<String, Integer>();
+		/** Uploads by type, started for the first APK in the edit, guarded by this. */
+		private final Map<String, Future<Integer>> uploads = new LinkedHashMap<String, Future<Integer>>();
+		private final List<Integer> attachedVersionCodes = new ArrayList<Integer>();
+		private boolean started;
+
+		ExpansionFileUploads(Edits edits, String editId, Map<String, File> expansionFiles, PublishJournal journal)
+				throws IOException {
+			this.edits = edits;
+			this.editId = editId;
+			this.journal = journal;
+			for (Map.Entry<String, File> file : expansionFiles.entrySet()) {
+				if (journal == null) {
+					files.put(file.getKey(), file.getValue());
+					continue;
+				}
+				String sha1 = Digests.sha1Hex(file.getValue());
+				Integer versionCode = journal.getExpansionFileVersionCode(file.getKey(), sha1);
+				if (versionCode != null) {
+					logger.info(String.format("The %s expansion file was already uploaded to version code %d",
+							file.getKey(), versionCode));
+					uploadedVersionCodes.put(file.getKey(), versionCode);
+				} else {
+					files.put(file.getKey(), file.getValue());
+					hashes.put(file.getKey(), sha1);
+				}
+			}
+			this.executor = Executors.newFixedThreadPool(expansionFiles.size());
+		}
+
+		/**
+		 * Attaches the expansion files to an APK once it is in the edit.
+		 */
+		synchronized void attach(final int versionCode) {
+			attachedVersionCodes.add(versionCode);
+			if (started) {
+				return;
+			}
+			started = true;
+			for (final Map.Entry<String, File> file : files.entrySet()) {
+				uploads.put(file.getKey(), executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws IOException {
+						Expansionfiles.Upload upload = edits.expansionfiles()
+								.upload(packageName, editId, versionCode, file.getKey(),
+										new FileContent(MIME_TYPE_EXPANSION_FILE, file.getValue()));
+						configureUpload(upload.getMediaHttpUploader(), file.getValue());
+						PublishMetrics.Phase phase = metrics.start("expansionfiles.upload");
+						try {
+							upload.execute();
+							phase.stop(file.getValue().length());
+						} finally {
+							phase.stop();
+						}
+						logger.info(String.format("The %s expansion file of version code %d has been uploaded from %s",
+								file.getKey(), versionCode, file.getValue().getName()));
+						if (journal != null) {
+							journal.expansionFileUploaded(file.getKey(), hashes.get(file.getKey()), versionCode);
+						}
+						return versionCode;
+					}
+				}));
+			}
+		}
+
+		/**
+		 * Waits for the uploads and references them from the other APKs of the publication.
+		 */
+		void finish() throws IOException {
+			Map<String, Integer> versionCodesByType = new LinkedHashMap<String, Integer>(uploadedVersionCodes);
+			Map<String, Future<Integer>> startedUploads;
+			List<Integer> versionCodes;
+			synchronized (this) {
+				startedUploads = new LinkedHashMap<String, Future<Integer>>(uploads);
+				versionCodes = new ArrayList<Integer>(attachedVersionCodes);
+			}
+			for (Map.Entry<String, Future<Integer>> upload : startedUploads.entrySet()) {
+				versionCodesByType.put(upload.getKey(), Futures.await(upload.getValue()));
+			}
+			for (Map.Entry<String, Integer> uploaded : versionCodesByType.entrySet()) {
+				String type = uploaded.getKey();
+				Integer uploadedVersionCode = uploaded.getValue();
+				for (Integer versionCode : versionCodes) {
+					if (versionCode.equals(uploadedVersionCode)
+							|| (journal != null && journal.isExpansionFileReferenced(type, versionCode))) {
+						continue;
+					}
+					PublishMetrics.Phase phase = metrics.start("expansionfiles.update");
+					try {
+						edits.expansionfiles()
+								.update(packageName, editId, versionCode, type,
+										new ExpansionFile().setReferencesVersion(uploadedVersionCode))
+								.execute();
+					} finally {
+						phase.stop();
+					}
+					logger.info(String.format("Version code %d references the %s expansion file of version code %d",
+							versionCode, type, uploadedVersionCode));
+					if (journal != null) {
+						journal.expansionFileReferenced(type, versionCode);
+					}
+				}
+			}
+		}
+	}
+
+	private void configureUpload(MediaHttpUploader uploader, File file) {
+		if (!publisherExtension.isResumableUpload()) {
+			uploader.setDirectUploadEnabled(true);
+			return;
+		}
+		logger.info(String.format("Uploading %s in chunks of %d bytes",
+				file.getName(), publisherExtension.getUploadChunkSize()));
+		uploader.setDirectUploadEnabled(false);
+		uploader.setChunkSize(publisherExtension.getUploadChunkSize());
+		uploader.setProgressListener(new UploadProgressLogger(logger, file.getName(), file.length()));
+	}
+
+	private void saveInventory(ApkInventory inventory, List<Apk> apks) {
+		for (Apk apk : apks) {
+			inventory.put(apk.getVersionCode(), apk.getBinary().getSha1());
+		}
+		try {
+			inventory.save();
+		} catch (IOException e) {
+			logger.warn("Unable to save the APK inventory: {}", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.HttpBackOffIOExceptionHandler;
+import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpIOExceptionHandler;
+import com.google.api.client.http.HttpMethods;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+
+import java.io.IOException;
+
+/**
+ * Authorizes requests with a credential, limits the request rate and retries failed requests using exponential
+ * back-off with jitter.
+ * <p>
+ * A rate limit error (429) means Google Play did not process the request, so every request is retried after one.
+ * I/O errors and server errors (5xx) are only retried for idempotent requests: a POST such as {@code edits.insert},
+ * {@code edits.commit} or a direct upload may have been applied even though its response was lost, and sending it
+ * again would create another edit or fail on the edit that was already committed.
+ * </p>
+ * <p>
+ * Resumable media uploads depend on these handlers being present: when a chunk fails, the uploader asks Google Play
+ * how many bytes it has received and continues from that offset instead of restarting the upload.
+ * </p>
+ */
+class BackOffRequestInitializer implements HttpRequestInitializer {
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final String METHOD_OVERRIDE_HEADER = "X-HTTP-Method-Override";
+    private static final String UPLOAD_TYPE_RESUMABLE = "resumable";
+
+    private final Credential credential;
+    private final RetryPolicy retryPolicy;
+
+    BackOffRequestInitializer(Credential credential, RetryPolicy retryPolicy) {
+        this.credential = credential;
+        this.retryPolicy = retryPolicy;
+    }
+
+    static boolean isRetryable(int statusCode) {
+        return statusCode == TOO_MANY_REQUESTS || statusCode / 100 == 5;
+    }
+
+    /**
+     * Whether sending the request again has no other effect than sending it
+     * once: reads, updates, deletes and resumable uploads. Starting a
+     * resumable upload session has no effect until its chunks are sent, and
+     * the chunks themselves are sent with PUT.
+     */
+    static boolean isIdempotent(HttpRequest request) {
+        String method = request.getRequestMethod();
+        if (HttpMethods.POST.equals(method)) {
+            Object override = request.getHeaders().get(METHOD_OVERRIDE_HEADER);
+            if (override == null) {
+                return UPLOAD_TYPE_RESUMABLE.equals(request.getUrl().getFirst("uploadType"));
+            }
+            method = override instanceof Iterable ? String.valueOf(((Iterable<?>) override).iterator().next())
+                    : String.valueOf(override);
+        }
+        return !HttpMethods.POST.equals(method);
+    }
+
+    @Override
+    public void initialize(HttpRequest request) throws IOException {
+        credential.initialize(request);
+        request.setNumberOfRetries(retryPolicy.getMaxRetries());
+
+        // Every attempt, including retries, takes a permit from the rate limiter before it is sent
+        final HttpExecuteInterceptor credentialInterceptor = request.getInterceptor();
+        request.setInterceptor(new HttpExecuteInterceptor() {
+            @Override
+            public void intercept(HttpRequest request) throws IOException {
+                retryPolicy.getRateLimiter().acquire();
+                if (credentialInterceptor != null) {
+                    credentialInterceptor.intercept(request);
+                }
+            }
+        });
+
+        // The credential installs its own handler to refresh expired tokens, keep it in front of the back-off
+        final HttpUnsuccessfulResponseHandler credentialHandler = request.getUnsuccessfulResponseHandler();
+        final HttpUnsuccessfulResponseHandler backOffHandler =
+                new HttpBackOffUnsuccessfulResponseHandler(retryPolicy.newBackOff())
+                        .setBackOffRequired(new HttpBackOffUnsuccessfulResponseHandler.BackOffRequired() {
+                            @Override
+                            public boolean isRequired(HttpResponse response) {
+                                int statusCode = response.getStatusCode();
+                                return statusCode == TOO_MANY_REQUESTS
+                                        || (isRetryable(statusCode) && isIdempotent(response.getRequest()));
+                            }
+                        });
+        request.setUnsuccessfulResponseHandler(new HttpUnsuccessfulResponseHandler() {
+            @Override
+            public boolean handleResponse(HttpRequest request, HttpResponse response, boolean supportsRetry)
+                    throws IOException {
+                if (credentialHandler != null
+                        && credentialHandler.handleResponse(request, response, supportsRetry)) {
+                    return true;
+                }
+                if (backOffHandler.handleResponse(request, response, supportsRetry)) {
+                    PublishMetrics.recordRetry();
+                    return true;
+                }
+                return false;
+            }
+        });
+        final HttpIOExceptionHandler ioExceptionHandler = new HttpBackOffIOExceptionHandler(retryPolicy.newBackOff());
+        request.setIOExceptionHandler(new HttpIOExceptionHandler() {
+            @Override
+            public boolean handleIOException(HttpRequest request, boolean supportsRetry) throws IOException {
+                if (isIdempotent(request) && ioExceptionHandler.handleIOException(request, supportsRetry)) {
+                    PublishMetrics.recordRetry();
+                    return true;
+                }
+                return false;
+            }
+        });
+    }
+
+    Credential getCredential() {
+        return credential;
+    }
+}
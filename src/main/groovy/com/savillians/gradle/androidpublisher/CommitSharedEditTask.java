@@ -0,0 +1,48 @@
+package com.savillians.gradle.androidpublisher;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.Task;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.IOException;
+
+/**
+ * Commits the edits shared by the publisher tasks of the build once all of them ran, or deletes the edits if a task
+ * of the build failed.
+ * <p>
+ * A single instance of the task is added to the root project and finalizes the publisher tasks of every project, so
+ * it runs after all of them, even when one of them fails.  It is skipped unless a task opened a shared edit with
+ * {@link AndroidPublisherExtension#isSharedEdit()} set.
+ * </p>
+ */
+public class CommitSharedEditTask extends DefaultTask {
+	@TaskAction
+	public void commit() {
+		if (!SharedEdit.hasOpenEdits()) {
+			getLogger().info("No shared edit to commit");
+			return;
+		}
+		for (Task task : getProject().getGradle().getTaskGraph().getAllTasks()) {
+			if (task.getState().getFailure() != null) {
+				getLogger().lifecycle("Deleting the shared edits without committing them, {} failed", task.getPath());
+				SharedEdit.rollBackAll();
+				return;
+			}
+		}
+
+		PublishMetrics metrics = new PublishMetrics(getName());
+		boolean successful = false;
+		try {
+			SharedEdit.commitAll(metrics);
+			getLogger().lifecycle("The shared edits have been committed");
+			successful = true;
+		} catch (IOException e) {
+			throw new InvalidUserDataException(
+					String.format("Exception was thrown while committing the shared edits: %s", e.getMessage()),
+					e);
+		} finally {
+			PublishReports.write(getProject(), getName(), metrics, successful, getLogger());
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.AppEdit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Prepares the publishing of a package while the APKs are still being built: authorizes, creates the edit and
+ * refreshes the track state of the APK inventory in the background, so only the uploads, the track update and the
+ * commit are left once the APKs exist.
+ * <p>
+ * A prepared edit is claimed by the first publish of its package in the build.  Edits that were not claimed, for
+ * example because the build failed before publishing, are deleted when the build finishes.
+ * </p>
+ */
+class EditWarmUp {
+	private static final Log log = LogFactory.getLog(EditWarmUp.class);
+
+	private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "android-publisher-warm-up");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/** Warm-ups of the current build by package name, guarded by the class lock. */
+	private static final Map<String, Future<PreparedEdit>> PENDING = new HashMap<String, Future<PreparedEdit>>();
+
+	/**
+	 * Starts preparing an edit of the package in the background, unless one is being prepared already.
+	 */
+	static synchronized void start(final AndroidPublisherExtension publisherExtension, final String packageName) {
+		if (PENDING.containsKey(packageName)) {
+			return;
+		}
+		log.info(String.format("Warming up the edit of %s", packageName));
+		PENDING.put(packageName, EXECUTOR.submit(new Callable<PreparedEdit>() {
+			@Override
+			public PreparedEdit call() throws Exception {
+				AndroidPublisher service = AndroidPublisherHelper.init(publisherExtension);
+				AndroidPublisherHelper.authorize(service);
+				AppEdit edit = service.edits().insert(packageName, null /** no content */).execute();
+				ApkInventory inventory = ApkInventory.load(packageName);
+				inventory.refreshTracks(service.edits(), packageName, edit.getId());
+				log.info(String.format("Warmed up edit %s of %s", edit.getId(), packageName));
+				return new PreparedEdit(service, edit.getId(), inventory);
+			}
+		}));
+	}
+
+	static synchronized boolean isStarted(String packageName) {
+		return PENDING.containsKey(packageName);
+	}
+
+	/**
+	 * Takes the prepared edit of the package, waiting for the warm-up to finish if needed.
+	 *
+	 * @return the prepared edit, or {@code null} if no warm-up was started or it failed
+	 */
+	static PreparedEdit claim(String packageName) {
+		Future<PreparedEdit> pending;
+		synchronized (EditWarmUp.class) {
+			pending = PENDING.remove(packageName);
+		}
+		if (pending == null) {
+			return null;
+		}
+		try {
+			return Futures.await(pending);
+		} catch (IOException e) {
+			log.warn(String.format("Warm-up of %s failed, creating a new edit: %s", packageName, e.getMessage()));
+		} catch (RuntimeException e) {
+			log.warn(String.format("Warm-up of %s failed, creating a new edit: %s", packageName, e.getMessage()));
+		}
+		return null;
+	}
+
+	/**
+	 * Deletes the edits that were prepared but not claimed by this build.
+	 */
+	static void discardUnclaimed() {
+		List<Map.Entry<String, Future<PreparedEdit>>> unclaimed;
+		synchronized (EditWarmUp.class) {
+			unclaimed = new ArrayList<Map.Entry<String, Future<PreparedEdit>>>(PENDING.entrySet());
+			PENDING.clear();
+		}
+		for (Map.Entry<String, Future<PreparedEdit>> pending : unclaimed) {
+			try {
+				PreparedEdit prepared = Futures.await(pending.getValue());
+				prepared.service.edits().delete(pending.getKey(), prepared.editId).execute();
+				log.info(String.format("Deleted unused edit %s of %s", prepared.editId, pending.getKey()));
+			} catch (IOException e) {
+				// Google Play deletes abandoned edits when they expire
+				log.info(String.format("Unable to delete the unused edit of %s: %s", pending.getKey(),
+						e.getMessage()));
+			} catch (RuntimeException e) {
+				log.info(String.format("Unable to delete the unused edit of %s: %s", pending.getKey(),
+						e.getMessage()));
+			}
+		}
+	}
+
+	static class PreparedEdit {
+		final AndroidPublisher service;
+		final String editId;
+		final ApkInventory inventory;
+
+		PreparedEdit(AndroidPublisher service, String editId, ApkInventory inventory) {
+			this.service = service;
+			this.editId = editId;
+			this.inventory = inventory;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package com.savillians.gradle.androidpublisher;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Helpers for waiting on work submitted to an executor.
+ */
+final class Futures {
+
+	private Futures() {
+	}
+
+	/**
+	 * Waits for the future and rethrows the exception thrown by its task, so callers can keep handling
+	 * {@link IOException}s the same way as for requests executed on the current thread.
+	 */
+	static <T> T await(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a request to complete");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+}
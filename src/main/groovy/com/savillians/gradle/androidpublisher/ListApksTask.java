@@ -1,4 +1,5 @@
 /*
+ * Adapted from original Google samples code.
  * Copyright 2014 Google Inc. All rights reserved.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -16,58 +17,98 @@
 
 package com.savillians.gradle.androidpublisher;
 
-import java.io.IOException;
-import java.security.GeneralSecurityException;
-
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-
 import com.google.api.client.repackaged.com.google.common.base.Preconditions;
 import com.google.api.client.repackaged.com.google.common.base.Strings;
 import com.google.api.services.androidpublisher.AndroidPublisher;
 import com.google.api.services.androidpublisher.AndroidPublisher.Edits;
 import com.google.api.services.androidpublisher.AndroidPublisher.Edits.Insert;
-import com.google.api.services.androidpublisher.model.Apk;
-import com.google.api.services.androidpublisher.model.ApksListResponse;
 import com.google.api.services.androidpublisher.model.AppEdit;
 
+import org.gradle.api.DefaultTask;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Lists all the apks for a given app.
+ * <p>
+ * The apks are read from the local inventory, which is refreshed from Google Play when it is older than
+ * {@link AndroidPublisherExtension#getInventoryMaxAge()} minutes or when the {@code refreshInventory} project
+ * property is set.
+ * </p>
  */
-public class ListApksTask {
-//
-//    private static final Log log = LogFactory.getLog(ListApksTask.class);
-//
-//    public static void main(String[] args) {
-//        try {
-//            Preconditions.checkArgument(!Strings.isNullOrEmpty(ApplicationConfig.PACKAGE_NAME),
-//                    "ApplicationConfig.PACKAGE_NAME cannot be null or empty!");
-//
-//            // Create the API service.
-//            final AndroidPublisher service = AndroidPublisherHelper.init(
-//                    ApplicationConfig.APPLICATION_NAME, ApplicationConfig.SERVICE_ACCOUNT_EMAIL);
-//            final Edits edits = service.edits();
-//
-//            // Create a new edit to make changes.
-//            Insert editRequest = edits
-//                    .insert(ApplicationConfig.PACKAGE_NAME,
-//                            null /** no content */);
-//            AppEdit appEdit = editRequest.execute();
-//
-//            // Get a list of apks.
-//            ApksListResponse apksResponse = edits
-//                    .apks()
-//                    .list(ApplicationConfig.PACKAGE_NAME,
-//                            appEdit.getId()).execute();
-//
-//            // Print the apk info.
-//            for (Apk apk : apksResponse.getApks()) {
-//                System.out.println(
-//                        String.format("Version: %d - Binary sha1: %s", apk.getVersionCode(),
-//                                apk.getBinary().getSha1()));
-//            }
-//        } catch (IOException | GeneralSecurityException ex) {
-//            log.error("Exception was thrown while updating listing", ex);
-//        }
-//    }
-}
\ No newline at end of file
+public class ListApksTask extends DefaultTask {
+	@TaskAction
+	public void listApks() {
+		AndroidPublisherExtension publisherExtension = getAndVerifyExtension();
+		ApkInventory inventory = ApkInventory.load(publisherExtension.getPackageName());
+		boolean forceRefresh = getProject().hasProperty("refreshInventory");
+		if (forceRefresh || !inventory.isFresh(TimeUnit.MINUTES.toMillis(publisherExtension.getInventoryMaxAge()))) {
+			refreshInventory(publisherExtension, inventory);
+		} else {
+			getLogger().info("Using APK inventory {}", inventory.getFile());
+		}
+
+		for (ApkInventory.ApkEntry apk : inventory.getApks()) {
+			getLogger().lifecycle(String.format("Version: %d - Binary sha1: %s - Tracks: %s", apk.versionCode,
+					apk.sha1, apk.tracks != null ? apk.tracks : "unknown"));
+		}
+	}
+
+	private AndroidPublisherExtension getAndVerifyExtension() {
+		AndroidPublisherExtension publisherExtension = getProject().getExtensions()
+				.getByType(AndroidPublisherExtension.class);
+
+		Preconditions.checkArgument(!Strings.isNullOrEmpty(
+						publisherExtension.getPackageName()),
+				"Package name cannot be null or empty!");
+		Preconditions.checkArgument(publisherExtension.getInventoryMaxAge() >= 0,
+				"Inventory max age cannot be negative!");
+
+		return publisherExtension;
+	}
+
+	private void refreshInventory(AndroidPublisherExtension publisherExtension, ApkInventory inventory) {
+		Preconditions.checkArgument(!Strings.isNullOrEmpty(
+						publisherExtension.getApplicationName()),
+				"Application name cannot be null or empty!");
+		Preconditions.checkArgument(!Strings.isNullOrEmpty(
+						publisherExtension.getServiceAccountEmail()),
+				"Service account email cannot be null or empty!");
+		Preconditions.checkArgument(publisherExtension.getServiceAccountKeyFile() != null,
+				"Service account key file cannot be null or empty!");
+		Preconditions.checkArgument(publisherExtension.getConnectionPoolSize() > 0,
+				"Connection pool size must be greater than zero!");
+		Preconditions.checkArgument(publisherExtension.getMaxRetries() >= 0,
+				"Max retries cannot be negative!");
+		try {
+			// Create the API service
+			AndroidPublisher service = AndroidPublisherHelper.init(publisherExtension);
+			final Edits edits = service.edits();
+
+			// Create a new edit to read the apks, it is discarded afterwards
+			Insert editRequest = edits
+					.insert(publisherExtension.getPackageName(), null /** no content */);
+			AppEdit appEdit = editRequest.execute();
+
+			try {
+				inventory.refreshTracks(edits, publisherExtension.getPackageName(), appEdit.getId());
+			} finally {
+				AndroidPublisherHelper.deleteEdit(edits, publisherExtension.getPackageName(), appEdit.getId());
+			}
+			inventory.save();
+			getLogger().info("APK inventory {} has been refreshed", inventory.getFile());
+		} catch (IOException e) {
+			throw new InvalidUserDataException(
+					String.format("Exception was thrown while listing APKs: %s", e.getMessage()),
+					e);
+		} catch (GeneralSecurityException e) {
+			throw new InvalidUserDataException(
+					String.format("Exception was thrown while listing APKs: %s", e.getMessage()),
+					e);
+		}
+	}
+}
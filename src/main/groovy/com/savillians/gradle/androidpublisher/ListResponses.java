@@ -0,0 +1,191 @@
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.json.JsonParser;
+import com.google.api.client.json.JsonToken;
+import com.google.api.services.androidpublisher.AndroidPublisher.Edits;
+import com.google.api.services.androidpublisher.model.Track;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads {@code apks.list} and {@code tracks.list} responses with a streaming parser, keeping only the version codes,
+ * SHA-1 hashes and track membership.
+ * <p>
+ * Packages with years of history have thousands of APKs, each with several fields the inventory and the promotion
+ * never use.  Streaming the response skips those fields instead of building a model object for every one of them,
+ * so memory use and parse time only grow with the fields that are kept.
+ * </p>
+ */
+final class ListResponses {
+
+	private ListResponses() {
+	}
+
+	/**
+	 * Executes the {@code apks.list} request and returns the version code and SHA-1 hash of every APK.
+	 */
+	static List<ApkInventory.ApkEntry> readApks(Edits.Apks.List request) throws IOException {
+		HttpResponse response = request.executeUnparsed();
+		try {
+			return parseApks(response.getContent(), response.getContentCharset());
+		} finally {
+			// Closing the fully read content releases the connection for reuse
+			response.ignore();
+		}
+	}
+
+	/**
+	 * Executes the {@code tracks.list} request and returns every track with its version codes and user fraction.
+	 */
+	static List<Track> readTracks(Edits.Tracks.List request) throws IOException {
+		HttpResponse response = request.executeUnparsed();
+		try {
+			return parseTracks(response.getContent(), response.getContentCharset());
+		} finally {
+			response.ignore();
+		}
+	}
+
+	static List<ApkInventory.ApkEntry> parseApks(InputStream in, Charset charset) throws IOException {
+		List<ApkInventory.ApkEntry> apks = new ArrayList<ApkInventory.ApkEntry>();
+		JsonParser parser = AndroidPublisherHelper.getJsonFactory().createJsonParser(in, charset);
+		try {
+			startResponse(parser);
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				if ("apks".equals(field) && parser.nextToken() == JsonToken.START_ARRAY) {
+					while (parser.nextToken() == JsonToken.START_OBJECT) {
+						ApkInventory.ApkEntry apk = parseApk(parser);
+						if (apk.versionCode != null) {
+							apks.add(apk);
+						}
+					}
+				} else {
+					skipValue(parser);
+				}
+			}
+		} finally {
+			parser.close();
+		}
+		return apks;
+	}
+
+	private static ApkInventory.ApkEntry parseApk(JsonParser parser) throws IOException {
+		ApkInventory.ApkEntry apk = new ApkInventory.ApkEntry();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			if ("versionCode".equals(field)) {
+				parser.nextToken();
+				apk.versionCode = parseInt(parser);
+			} else if ("binary".equals(field) && parser.nextToken() == JsonToken.START_OBJECT) {
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String binaryField = parser.getCurrentName();
+					if ("sha1".equals(binaryField)) {
+						parser.nextToken();
+						apk.sha1 = parseText(parser);
+					} else {
+						skipValue(parser);
+					}
+				}
+			} else {
+				skipValue(parser);
+			}
+		}
+		return apk;
+	}
+
+	static List<Track> parseTracks(InputStream in, Charset charset) throws IOException {
+		List<Track> tracks = new ArrayList<Track>();
+		JsonParser parser = AndroidPublisherHelper.getJsonFactory().createJsonParser(in, charset);
+		try {
+			startResponse(parser);
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				if ("tracks".equals(field) && parser.nextToken() == JsonToken.START_ARRAY) {
+					while (parser.nextToken() == JsonToken.START_OBJECT) {
+						tracks.add(parseTrack(parser));
+					}
+				} else {
+					skipValue(parser);
+				}
+			}
+		} finally {
+			parser.close();
+		}
+		return tracks;
+	}
+
+	private static Track parseTrack(JsonParser parser) throws IOException {
+		Track track = new Track();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			if ("track".equals(field)) {
+				parser.nextToken();
+				track.setTrack(parseText(parser));
+			} else if ("versionCodes".equals(field) && parser.nextToken() == JsonToken.START_ARRAY) {
+				List<Integer> versionCodes = new ArrayList<Integer>();
+				while (parser.nextToken() != JsonToken.END_ARRAY) {
+					Integer versionCode = parseInt(parser);
+					if (versionCode != null) {
+						versionCodes.add(versionCode);
+					}
+				}
+				track.setVersionCodes(versionCodes);
+			} else if ("userFraction".equals(field)) {
+				JsonToken token = parser.nextToken();
+				if (token == JsonToken.VALUE_NUMBER_FLOAT || token == JsonToken.VALUE_NUMBER_INT) {
+					track.setUserFraction(parser.getDoubleValue());
+				} else if (token == JsonToken.VALUE_STRING) {
+					track.setUserFraction(Double.valueOf(parser.getText()));
+				} else {
+					parser.skipChildren();
+				}
+			} else {
+				skipValue(parser);
+			}
+		}
+		return track;
+	}
+
+	private static void startResponse(JsonParser parser) throws IOException {
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			throw new IOException("Unexpected list response, expected a JSON object");
+		}
+	}
+
+	/**
+	 * Skips the value of a field that is not kept, or whose value has an unexpected type.  The parser is either at
+	 * the field name or already at the start of its value.
+	 */
+	private static void skipValue(JsonParser parser) throws IOException {
+		if (parser.getCurrentToken() == JsonToken.FIELD_NAME) {
+			parser.nextToken();
+		}
+		parser.skipChildren();
+	}
+
+	private static Integer parseInt(JsonParser parser) throws IOException {
+		JsonToken token = parser.getCurrentToken();
+		if (token == JsonToken.VALUE_NUMBER_INT) {
+			return parser.getIntValue();
+		}
+		if (token == JsonToken.VALUE_STRING) {
+			return Integer.valueOf(parser.getText());
+		}
+		parser.skipChildren();
+		return null;
+	}
+
+	private static String parseText(JsonParser parser) throws IOException {
+		if (parser.getCurrentToken() == JsonToken.VALUE_STRING) {
+			return parser.getText();
+		}
+		parser.skipChildren();
+		return null;
+	}
+}
@@ -0,0 +1,227 @@
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.util.StreamingContent;
+import okhttp3.ConnectionPool;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * HTTP transport backed by OkHttp, which negotiates HTTP/2 with Google Play.
+ * <p>
+ * Over HTTP/2 the concurrent requests of all tasks, such as parallel uploads, listing, image and track updates, are
+ * multiplexed on a single connection instead of each taking a connection from the pool.  Servers that only speak
+ * HTTP/1.1 are served from a pool of keep-alive connections like the Apache transport.
+ * </p>
+ */
+class OkHttpTransport extends HttpTransport {
+	private static final long KEEP_ALIVE_MINUTES = 5;
+
+	/** Default connect and read timeout of google-http-client requests. */
+	private static final int DEFAULT_TIMEOUT_MILLIS = 20000;
+
+	private final OkHttpClient client;
+
+	private OkHttpTransport(OkHttpClient client) {
+		this.client = client;
+	}
+
+	/**
+	 * Creates a transport keeping up to the given number of idle connections open, trusting the given certificates
+	 * or the default ones of the JVM if {@code trustStore} is {@code null}.
+	 */
+	static OkHttpTransport create(int connectionPoolSize, KeyStore trustStore) throws GeneralSecurityException {
+		OkHttpClient.Builder builder = new OkHttpClient.Builder()
+				.connectionPool(new ConnectionPool(connectionPoolSize, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+				// Match the timeouts requests ask for unless they override them, so they use this client as is
+				.connectTimeout(DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+				.readTimeout(DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+				.writeTimeout(DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+				// Redirects are followed by the request factory, like with the other transports
+				.followRedirects(false)
+				.followSslRedirects(false)
+				// Only the back-off handlers decide what is sent again, a dropped commit or upload may have been applied
+				.retryOnConnectionFailure(false);
+		if (trustStore != null) {
+			TrustManagerFactory trustManagerFactory =
+					TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+			trustManagerFactory.init(trustStore);
+			X509TrustManager trustManager = (X509TrustManager) trustManagerFactory.getTrustManagers()[0];
+			SSLContext sslContext = SSLContext.getInstance("TLS");
+			sslContext.init(null, new TrustManager[] {trustManager}, null);
+			builder.sslSocketFactory(sslContext.getSocketFactory(), trustManager);
+		}
+		return new OkHttpTransport(builder.build());
+	}
+
+	@Override
+	public boolean supportsMethod(String method) {
+		// Unlike HttpURLConnection, OkHttp sends PATCH as is
+		return true;
+	}
+
+	@Override
+	protected LowLevelHttpRequest buildRequest(String method, String url) {
+		return new OkHttpRequest(method, url);
+	}
+
+	@Override
+	public void shutdown() {
+		client.dispatcher().executorService().shutdown();
+		client.connectionPool().evictAll();
+	}
+
+	private class OkHttpRequest extends LowLevelHttpRequest {
+		private final String method;
+		private final Request.Builder request;
+		private int connectTimeout = -1;
+		private int readTimeout = -1;
+
+		OkHttpRequest(String method, String url) {
+			this.method = method;
+			this.request = new Request.Builder().url(url);
+		}
+
+		@Override
+		public void addHeader(String name, String value) {
+			request.addHeader(name, value);
+		}
+
+		@Override
+		public void setTimeout(int connectTimeout, int readTimeout) {
+			this.connectTimeout = connectTimeout;
+			this.readTimeout = readTimeout;
+		}
+
+		@Override
+		public LowLevelHttpResponse execute() throws IOException {
+			if (getContentEncoding() != null) {
+				request.header("Content-Encoding", getContentEncoding());
+			}
+			request.method(method, newBody());
+
+			OkHttpClient requestClient = client;
+			if (connectTimeout >= 0 && (connectTimeout != client.connectTimeoutMillis()
+					|| readTimeout != client.readTimeoutMillis())) {
+				// Derived clients share the connection pool of the transport
+				requestClient = client.newBuilder()
+						.connectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
+						.readTimeout(readTimeout, TimeUnit.MILLISECONDS)
+						.writeTimeout(readTimeout, TimeUnit.MILLISECONDS)
+						.build();
+			}
+			return new OkHttpResponse(requestClient.newCall(request.build()).execute());
+		}
+
+		private RequestBody newBody() {
+			final StreamingContent content = getStreamingContent();
+			final MediaType contentType = getContentType() != null ? MediaType.parse(getContentType()) : null;
+			if (content == null) {
+				// OkHttp requires a body for the methods that send one, even if it is empty
+				boolean requiresBody = "POST".equals(method) || "PUT".equals(method) || "PATCH".equals(method);
+				return requiresBody ? RequestBody.create(contentType, new byte[0]) : null;
+			}
+			final long contentLength = getContentLength();
+			return new RequestBody() {
+				@Override
+				public MediaType contentType() {
+					return contentType;
+				}
+
+				@Override
+				public long contentLength() {
+					return contentLength;
+				}
+
+				@Override
+				public void writeTo(BufferedSink sink) throws IOException {
+					content.writeTo(sink.outputStream());
+				}
+			};
+		}
+	}
+
+	private static class OkHttpResponse extends LowLevelHttpResponse {
+		private final Response response;
+
+		OkHttpResponse(Response response) {
+			this.response = response;
+		}
+
+		@Override
+		public InputStream getContent() {
+			ResponseBody body = response.body();
+			return body != null ? body.byteStream() : null;
+		}
+
+		@Override
+		public String getContentEncoding() {
+			return response.header("Content-Encoding");
+		}
+
+		@Override
+		public long getContentLength() {
+			ResponseBody body = response.body();
+			return body != null ? body.contentLength() : 0;
+		}
+
+		@Override
+		public String getContentType() {
+			return response.header("Content-Type");
+		}
+
+		@Override
+		public String getStatusLine() {
+			return String.format("%s %d %s", response.protocol().toString().toUpperCase(), response.code(),
+					response.message()).trim();
+		}
+
+		@Override
+		public int getStatusCode() {
+			return response.code();
+		}
+
+		@Override
+		public String getReasonPhrase() {
+			return response.message();
+		}
+
+		@Override
+		public int getHeaderCount() {
+			return response.headers().size();
+		}
+
+		@Override
+		public String getHeaderName(int index) {
+			return response.headers().name(index);
+		}
+
+		@Override
+		public String getHeaderValue(int index) {
+			return response.headers().value(index);
+		}
+
+		@Override
+		public void disconnect() {
+			response.close();
+		}
+	}
+}
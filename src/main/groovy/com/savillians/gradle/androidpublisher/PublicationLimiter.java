@@ -0,0 +1,71 @@
+package com.savillians.gradle.androidpublisher;
+
+import org.gradle.api.logging.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounds the number of publications running at the same time in the Gradle daemon.
+ * <p>
+ * With {@code --parallel}, the publish tasks of several projects run at the same time, each uploading its APKs with
+ * its own threads and buffers.  Every publish task and every target of a publish targets task runs its network work
+ * through this limiter, so at most {@link AndroidPublisherExtension#getMaxParallelPublications()} of them upload at
+ * once and the others wait for a slot.  A changed limit takes effect once no publication is running, usually in the
+ * next build.
+ * </p>
+ */
+final class PublicationLimiter {
+	/** Publication slots of the daemon and their number, guarded by the class lock. */
+	private static Semaphore slots;
+	private static int slotCount;
+
+	private PublicationLimiter() {
+	}
+
+	private static synchronized Semaphore getSlots(int maxParallelPublications, Logger logger) {
+		if (slots == null || (slotCount != maxParallelPublications && slots.availablePermits() == slotCount)) {
+			// Publications running with the previous slots release them, not the new ones
+			slots = new Semaphore(maxParallelPublications, true);
+			slotCount = maxParallelPublications;
+		} else if (slotCount != maxParallelPublications) {
+			logger.lifecycle("Keeping the limit of {} parallel publications while publications are running, ignoring "
+					+ "maxParallelPublications = {}", slotCount, maxParallelPublications);
+		}
+		return slots;
+	}
+
+	/**
+	 * Runs the publication once a slot is free.
+	 */
+	static <T> T run(AndroidPublisherExtension publisherExtension, Logger logger, String description,
+					 Callable<T> publication) throws IOException, GeneralSecurityException {
+		Semaphore semaphore = getSlots(publisherExtension.getMaxParallelPublications(), logger);
+		if (!semaphore.tryAcquire()) {
+			logger.lifecycle("Waiting for another publication of the build to finish before publishing {}",
+					description);
+			try {
+				semaphore.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting to publish " + description);
+			}
+		}
+		try {
+			return publication.call();
+		} catch (IOException e) {
+			throw e;
+		} catch (GeneralSecurityException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		} finally {
+			semaphore.release();
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package com.savillians.gradle.androidpublisher
+
+/**
+ * A package published by the {@code androidPublishTargets} task.  Targets share the application name, service
+ * account and upload settings of the {@code androidPublisher} extension.
+ */
+class PublicationTarget {
+
+	/**
+	 * The name of the target, used in the DSL and in log messages.
+	 */
+	final String name
+
+	/**
+	 * Specify the package name of the app.
+	 */
+	String packageName
+
+	/**
+	 * The track to deploy to, defaults to the track of the {@code androidPublisher} extension.
+	 */
+	String track
+
+	/**
+	 * The APK file to publish.
+	 */
+	File apkFile
+
+	PublicationTarget(String name) {
+		this.name = name
+	}
+}
@@ -0,0 +1,266 @@
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.util.Key;
+import com.google.api.services.androidpublisher.model.Apk;
+import com.google.api.services.androidpublisher.model.ApkBinary;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Local record of a publication that has not been committed yet: its edit and the steps already completed in it.
+ * <p>
+ * The journal is saved after each step, so a publication interrupted after uploading its APKs, for example by a
+ * crash or a failed commit, resumes in the same edit on the next run while Google Play keeps the edit open, instead
+ * of uploading everything again.  It is deleted once the edit is committed.
+ * </p>
+ * <p>
+ * Each publication has its own journal, named after the package and the publication, such as the path of the task,
+ * so the publish tasks of several variants of the same package do not resume each other's edits.
+ * </p>
+ */
+class PublishJournal {
+	private static final Log log = LogFactory.getLog(PublishJournal.class);
+
+	private final File file;
+	private final Snapshot snapshot;
+
+	private PublishJournal(File file, Snapshot snapshot) {
+		this.file = file;
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Loads the journal of an interrupted publication of the package to the track.
+	 *
+	 * @return the journal, or {@code null} if there is none for this publication and track
+	 */
+	static PublishJournal load(String packageName, String publication, String track) {
+		File file = getFile(packageName, publication);
+		if (!file.isFile()) {
+			return null;
+		}
+		Snapshot snapshot = null;
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				snapshot = AndroidPublisherHelper.getJsonFactory().fromInputStream(in, Snapshot.class);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			log.warn(String.format("Ignoring unreadable publish journal %s: %s", file, e.getMessage()));
+		}
+		if (snapshot == null || snapshot.editId == null || !track.equals(snapshot.track)) {
+			return null;
+		}
+		if (snapshot.apks == null) {
+			snapshot.apks = new ArrayList<JournalApk>();
+		}
+		if (snapshot.expansionFiles == null) {
+			snapshot.expansionFiles = new ArrayList<JournalExpansionFile>();
+		}
+		return new PublishJournal(file, snapshot);
+	}
+
+	/**
+	 * Starts the journal of a publication in a new edit, replacing the journal of an earlier publication.
+	 */
+	static PublishJournal start(String packageName, String publication, String track, String editId)
+			throws IOException {
+		Snapshot snapshot = new Snapshot();
+		snapshot.track = track;
+		snapshot.editId = editId;
+		snapshot.apks = new ArrayList<JournalApk>();
+		snapshot.expansionFiles = new ArrayList<JournalExpansionFile>();
+		PublishJournal journal = new PublishJournal(getFile(packageName, publication), snapshot);
+		journal.save();
+		return journal;
+	}
+
+	private static File getFile(String packageName, String publication) {
+		File packageDir = new File(new File(AndroidPublisherHelper.getDataStoreDir(), "journals"), packageName);
+		return new File(packageDir, publication.replaceAll("[^A-Za-z0-9._-]", "_") + ".json");
+	}
+
+	String getEditId() {
+		return snapshot.editId;
+	}
+
+	/**
+	 * Returns the APK with the given hash if it was already uploaded to the edit, or {@code null}.
+	 */
+	synchronized Apk getUploadedApk(String sha1) {
+		for (JournalApk apk : snapshot.apks) {
+			if (sha1.equalsIgnoreCase(apk.sha1)) {
+				return new Apk().setVersionCode(apk.versionCode).setBinary(new ApkBinary().setSha1(apk.sha1));
+			}
+		}
+		return null;
+	}
+
+	synchronized void apkUploaded(Apk apk) throws IOException {
+		JournalApk journalApk = new JournalApk();
+		journalApk.versionCode = apk.getVersionCode();
+		journalApk.sha1 = apk.getBinary().getSha1();
+		snapshot.apks.add(journalApk);
+		save();
+	}
+
+	/**
+	 * Returns the version code the expansion file of the given type and hash was uploaded to in the edit, or
+	 * {@code null} if it was not uploaded or the file changed since.
+	 */
+	synchronized Integer getExpansionFileVersionCode(String type, String sha1) {
+		JournalExpansionFile expansionFile = findExpansionFile(type);
+		return expansionFile != null && sha1.equalsIgnoreCase(expansionFile.sha1) ? expansionFile.versionCode : null;
+	}
+
+	/**
+	 * Records the upload of an expansion file, replacing an earlier upload of the type and its references.
+	 */
+	synchronized void expansionFileUploaded(String type, String sha1, int versionCode) throws IOException {
+		JournalExpansionFile expansionFile = findExpansionFile(type);
+		if (expansionFile == null) {
+			expansionFile = new JournalExpansionFile();
+			expansionFile.type = type;
+			snapshot.expansionFiles.add(expansionFile);
+		}
+		expansionFile.sha1 = sha1;
+		expansionFile.versionCode = versionCode;
+		expansionFile.referencingVersionCodes = new ArrayList<Integer>();
+		save();
+	}
+
+	/**
+	 * Whether the APK with the version code already references the uploaded expansion file of the type.
+	 */
+	synchronized boolean isExpansionFileReferenced(String type, int versionCode) {
+		JournalExpansionFile expansionFile = findExpansionFile(type);
+		return expansionFile != null && expansionFile.referencingVersionCodes != null
+				&& expansionFile.referencingVersionCodes.contains(versionCode);
+	}
+
+	synchronized void expansionFileReferenced(String type, int versionCode) throws IOException {
+		JournalExpansionFile expansionFile = findExpansionFile(type);
+		if (expansionFile.referencingVersionCodes == null) {
+			expansionFile.referencingVersionCodes = new ArrayList<Integer>();
+		}
+		expansionFile.referencingVersionCodes.add(versionCode);
+		save();
+	}
+
+	private JournalExpansionFile findExpansionFile(String type) {
+		for (JournalExpansionFile expansionFile : snapshot.expansionFiles) {
+			if (type.equals(expansionFile.type)) {
+				return expansionFile;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Whether the track was already updated with exactly these version codes.
+	 */
+	synchronized boolean isTrackUpdated(List<Integer> versionCodes) {
+		return snapshot.trackVersionCodes != null && snapshot.trackVersionCodes.equals(versionCodes);
+	}
+
+	synchronized void trackUpdated(List<Integer> versionCodes) throws IOException {
+		snapshot.trackVersionCodes = new ArrayList<Integer>(versionCodes);
+		save();
+	}
+
+	/**
+	 * Deletes the journal once its edit is committed or no longer exists.
+	 */
+	synchronized void delete() {
+		if (file.isFile() && !file.delete()) {
+			log.warn(String.format("Unable to delete publish journal %s", file));
+		}
+	}
+
+	/**
+	 * Writes the journal to a temporary file first so an interrupted write never leaves a partial journal.
+	 */
+	private void save() throws IOException {
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Unable to create directory " + dir);
+		}
+		File tempFile = File.createTempFile(file.getName(), ".tmp", dir);
+		JsonFactory jsonFactory = AndroidPublisherHelper.getJsonFactory();
+		OutputStream out = new FileOutputStream(tempFile);
+		try {
+			out.write(jsonFactory.toPrettyString(snapshot).getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+			tempFile.delete();
+			throw new IOException("Unable to write publish journal " + file);
+		}
+	}
+
+	/**
+	 * JSON representation of the journal file.
+	 */
+	public static class Snapshot extends GenericJson {
+		@Key
+		String track;
+
+		@Key
+		String editId;
+
+		/** APKs uploaded to the edit. */
+		@Key
+		List<JournalApk> apks;
+
+		/** Expansion files uploaded to the edit, at most one per type. */
+		@Key
+		List<JournalExpansionFile> expansionFiles;
+
+		/** Version codes the track was updated with, {@code null} until the track is updated. */
+		@Key
+		List<Integer> trackVersionCodes;
+	}
+
+	/**
+	 * An expansion file uploaded to the edit of the journal and the APKs referencing it.
+	 */
+	public static class JournalExpansionFile extends GenericJson {
+		@Key
+		String type;
+
+		@Key
+		String sha1;
+
+		/** Version code of the APK the file was uploaded to. */
+		@Key
+		Integer versionCode;
+
+		@Key
+		List<Integer> referencingVersionCodes;
+	}
+
+	/**
+	 * An APK uploaded to the edit of the journal.
+	 */
+	public static class JournalApk extends GenericJson {
+		@Key
+		Integer versionCode;
+
+		@Key
+		String sha1;
+	}
+}
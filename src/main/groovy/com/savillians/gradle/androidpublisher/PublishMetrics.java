@@ -0,0 +1,230 @@
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.util.Key;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the duration of each phase of a task run (authorization, edit creation, uploads, track updates and the
+ * commit), the throughput of uploads and the number of retries of each request.
+ * <p>
+ * A phase is bound to the thread that started it until it is stopped, so retries of the requests sent by that
+ * thread are counted against it.  Phases are stopped in a {@code finally} block, so a failed request does not leave
+ * its phase bound to a thread that later runs other tasks.
+ * </p>
+ */
+class PublishMetrics {
+	private static final ThreadLocal<Phase> CURRENT_PHASE = new ThreadLocal<Phase>();
+
+	private final Report report = new Report();
+	private final long startNanos = System.nanoTime();
+
+	PublishMetrics(String taskName) {
+		report.task = taskName;
+		report.startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Starts a phase on the current thread. A phase started within another one takes its place until it is stopped.
+	 */
+	Phase start(String name) {
+		Phase phase = new Phase(name, startNanos);
+		synchronized (report) {
+			report.phases.add(phase);
+		}
+		phase.previous = CURRENT_PHASE.get();
+		CURRENT_PHASE.set(phase);
+		return phase;
+	}
+
+	/**
+	 * Counts a retry against the phase running on the current thread, if any.
+	 */
+	static void recordRetry() {
+		Phase phase = CURRENT_PHASE.get();
+		if (phase != null) {
+			phase.recordRetry();
+		}
+	}
+
+	/**
+	 * Marks the run as finished and writes the report as JSON.
+	 */
+	void writeReport(File file, boolean successful) throws IOException {
+		String json;
+		synchronized (report) {
+			report.durationMillis = toMillis(System.nanoTime() - startNanos);
+			report.successful = successful;
+			json = AndroidPublisherHelper.getJsonFactory().toPrettyString(report);
+		}
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Unable to create directory " + dir);
+		}
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(json.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Summarizes the run on one line. Phases with the same name, such as concurrent uploads, are combined into the
+	 * time from the first start to the last end.
+	 */
+	String getSummary() {
+		Map<String, long[]> spans = new LinkedHashMap<String, long[]>();
+		int retries = 0;
+		synchronized (report) {
+			for (Phase phase : report.phases) {
+				Long durationMillis = phase.getDurationMillis();
+				if (durationMillis == null) {
+					continue;
+				}
+				long[] span = spans.get(phase.name);
+				if (span == null) {
+					span = new long[] {Long.MAX_VALUE, 0, 0};
+					spans.put(phase.name, span);
+				}
+				span[0] = Math.min(span[0], phase.startMillis);
+				span[1] = Math.max(span[1], phase.startMillis + durationMillis);
+				span[2] += phase.bytes != null ? phase.bytes : 0;
+				retries += phase.getRetries();
+			}
+		}
+		StringBuilder summary = new StringBuilder(String.format("%s took %d ms:", report.task,
+				toMillis(System.nanoTime() - startNanos)));
+		String separator = " ";
+		for (Map.Entry<String, long[]> span : spans.entrySet()) {
+			long millis = span.getValue()[1] - span.getValue()[0];
+			summary.append(separator).append(String.format("%s %d ms", span.getKey(), millis));
+			if (span.getValue()[2] > 0) {
+				summary.append(String.format(" (%d KB/s)", bytesPerSecond(span.getValue()[2], millis) / 1024));
+			}
+			separator = ", ";
+		}
+		summary.append(String.format(", %d retries", retries));
+		return summary.toString();
+	}
+
+	private static long toMillis(long nanos) {
+		return nanos / 1000000;
+	}
+
+	private static long bytesPerSecond(long bytes, long millis) {
+		return millis > 0 ? bytes * 1000 / millis : 0;
+	}
+
+	/**
+	 * A measured phase, serialized as part of the report.
+	 */
+	public static class Phase extends GenericJson {
+		@Key
+		String name;
+
+		/** Milliseconds from the start of the run to the start of the phase. */
+		@Key
+		long startMillis;
+
+		/** Duration of the phase until it finished or failed. */
+		@Key
+		Long durationMillis;
+
+		@Key
+		Long bytes;
+
+		@Key
+		Long bytesPerSecond;
+
+		@Key
+		int retries;
+
+		private long startNanos;
+
+		/** Phase that was running on the thread when this one started. */
+		private Phase previous;
+
+		public Phase() {
+		}
+
+		Phase(String name, long runStartNanos) {
+			this.name = name;
+			this.startNanos = System.nanoTime();
+			this.startMillis = toMillis(startNanos - runStartNanos);
+		}
+
+		synchronized void recordRetry() {
+			retries++;
+		}
+
+		synchronized int getRetries() {
+			return retries;
+		}
+
+		synchronized Long getDurationMillis() {
+			return durationMillis;
+		}
+
+		/**
+		 * Stops the phase and binds the current thread back to the phase it interrupted, if that one still runs.
+		 */
+		void stop() {
+			stop(null);
+		}
+
+		/**
+		 * Stops a phase that transferred the given number of bytes, unless it is already stopped.
+		 */
+		synchronized void stop(Long bytes) {
+			if (durationMillis != null) {
+				return;
+			}
+			durationMillis = toMillis(System.nanoTime() - startNanos);
+			if (bytes != null) {
+				this.bytes = bytes;
+				this.bytesPerSecond = PublishMetrics.bytesPerSecond(bytes, durationMillis);
+			}
+			if (CURRENT_PHASE.get() == this) {
+				Phase running = previous;
+				while (running != null && running.getDurationMillis() != null) {
+					running = running.previous;
+				}
+				if (running != null) {
+					CURRENT_PHASE.set(running);
+				} else {
+					CURRENT_PHASE.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * JSON representation of the report file.
+	 */
+	public static class Report extends GenericJson {
+		@Key
+		String task;
+
+		/** Start of the run in milliseconds since the epoch. */
+		@Key
+		long startTime;
+
+		@Key
+		Long durationMillis;
+
+		@Key
+		Boolean successful;
+
+		@Key
+		List<Phase> phases = new ArrayList<Phase>();
+	}
+}
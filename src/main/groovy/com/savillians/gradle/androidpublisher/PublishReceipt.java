@@ -0,0 +1,69 @@
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.util.Key;
+import com.google.api.services.androidpublisher.model.Apk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Record of a committed publication, written as the output of {@link AndroidPublishTask} so Gradle can tell when
+ * the same APKs have already been published.
+ */
+public class PublishReceipt extends GenericJson {
+	@Key
+	String packageName;
+
+	@Key
+	String track;
+
+	@Key
+	String editId;
+
+	@Key
+	List<PublishedApk> apks = new ArrayList<PublishedApk>();
+
+	PublishReceipt() {
+	}
+
+	PublishReceipt(String packageName, String track, String editId, List<Apk> apks) {
+		this.packageName = packageName;
+		this.track = track;
+		this.editId = editId;
+		for (Apk apk : apks) {
+			PublishedApk publishedApk = new PublishedApk();
+			publishedApk.versionCode = apk.getVersionCode();
+			publishedApk.sha1 = apk.getBinary() != null ? apk.getBinary().getSha1() : null;
+			this.apks.add(publishedApk);
+		}
+	}
+
+	void write(File file) throws IOException {
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Unable to create directory " + dir);
+		}
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(AndroidPublisherHelper.getJsonFactory().toPrettyString(this).getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * An APK assigned to the track by the publication.
+	 */
+	public static class PublishedApk extends GenericJson {
+		@Key
+		Integer versionCode;
+
+		@Key
+		String sha1;
+	}
+}
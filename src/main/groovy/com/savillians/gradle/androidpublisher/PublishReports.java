@@ -0,0 +1,32 @@
+package com.savillians.gradle.androidpublisher;
+
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes the timing report of a task run to {@code build/reports/androidPublisher/<task>.json} and logs its
+ * summary.
+ */
+final class PublishReports {
+
+	private PublishReports() {
+	}
+
+	static File getReportFile(Project project, String taskName) {
+		return new File(project.getBuildDir(), "reports/androidPublisher/" + taskName + ".json");
+	}
+
+	static void write(Project project, String taskName, PublishMetrics metrics, boolean successful, Logger logger) {
+		logger.lifecycle(metrics.getSummary());
+		File reportFile = getReportFile(project, taskName);
+		try {
+			metrics.writeReport(reportFile, successful);
+			logger.info("Timing report has been written to {}", reportFile);
+		} catch (IOException e) {
+			logger.warn("Unable to write timing report {}: {}", reportFile, e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.client.util.BackOff;
+import com.google.api.client.util.ExponentialBackOff;
+
+/**
+ * Retry and rate limit settings applied to every request of the API clients of the daemon.
+ */
+class RetryPolicy {
+	static final int DEFAULT_MAX_RETRIES = 5;
+	static final double DEFAULT_MAX_REQUESTS_PER_SECOND = 10;
+
+	private static final int INITIAL_INTERVAL_MILLIS = 1000;
+	private static final int MAX_INTERVAL_MILLIS = 32000;
+	private static final double RANDOMIZATION_FACTOR = 0.5;
+
+	private final TokenBucket rateLimiter = new TokenBucket();
+	private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+
+	RetryPolicy() {
+		rateLimiter.setRate(DEFAULT_MAX_REQUESTS_PER_SECOND);
+	}
+
+	/**
+	 * Updates the settings, the last configuration wins for all tasks running in the daemon.
+	 */
+	void configure(int maxRetries, double maxRequestsPerSecond) {
+		this.maxRetries = maxRetries;
+		if (rateLimiter.getRate() != maxRequestsPerSecond) {
+			rateLimiter.setRate(maxRequestsPerSecond);
+		}
+	}
+
+	int getMaxRetries() {
+		return maxRetries;
+	}
+
+	TokenBucket getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * Creates the back-off of a single request: exponential with randomized intervals so concurrent requests that
+	 * failed together do not retry together.
+	 */
+	BackOff newBackOff() {
+		return new ExponentialBackOff.Builder()
+				.setInitialIntervalMillis(INITIAL_INTERVAL_MILLIS)
+				.setMaxIntervalMillis(MAX_INTERVAL_MILLIS)
+				.setRandomizationFactor(RANDOMIZATION_FACTOR)
+				.setMultiplier(2)
+				.build();
+	}
+}
@@ -0,0 +1,258 @@
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.AndroidPublisher.Edits;
+import com.google.api.services.androidpublisher.model.Apk;
+import com.google.api.services.androidpublisher.model.AppEdit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One edit per package shared by all publisher tasks of a build.
+ * <p>
+ * The edit is created by the first task that changes the package, reusing the warmed up edit if there is one.  The
+ * following tasks add their changes to the same edit and none of them commits it.  The {@code androidCommitSharedEdit}
+ * task of the root project, which finalizes the publisher tasks of every project, commits all shared edits once, or
+ * deletes them if a task of the build failed.  Edits still open when the build finishes are deleted.
+ * </p>
+ * <p>
+ * Once the edits are committed or deleted, no task of the same build can open a shared edit again: it would create an
+ * edit that is never committed.
+ * </p>
+ */
+class SharedEdit {
+	private static final Log log = LogFactory.getLog(SharedEdit.class);
+
+	/** Shared edits of the current build by package name, guarded by the class lock. */
+	private static final Map<String, SharedEdit> OPEN = new LinkedHashMap<String, SharedEdit>();
+
+	/** Whether the shared edits of the current build were committed or deleted, guarded by the class lock. */
+	private static boolean closed;
+
+	private final String packageName;
+	private final List<Apk> uploadedApks = new ArrayList<Apk>();
+	private final List<File> rollbackFiles = new ArrayList<File>();
+	private AndroidPublisher service;
+	private String editId;
+	private ApkInventory inventory;
+
+	private SharedEdit(String packageName) {
+		this.packageName = packageName;
+	}
+
+	/**
+	 * Returns the shared edit of the package, creating it if this is the first change to the package in the build.
+	 */
+	static SharedEdit open(AndroidPublisherExtension publisherExtension, String packageName, PublishMetrics metrics)
+			throws IOException, GeneralSecurityException {
+		SharedEdit sharedEdit;
+		synchronized (SharedEdit.class) {
+			if (closed) {
+				throw new IllegalStateException(String.format("The shared edits of the build have already been "
+						+ "committed or deleted, changes to %s must be made before androidCommitSharedEdit runs",
+						packageName));
+			}
+			sharedEdit = OPEN.get(packageName);
+			if (sharedEdit == null) {
+				sharedEdit = new SharedEdit(packageName);
+				OPEN.put(packageName, sharedEdit);
+			}
+		}
+		// Only tasks of the same package wait for the edit to be created
+		synchronized (sharedEdit) {
+			if (sharedEdit.editId == null) {
+				sharedEdit.create(publisherExtension, metrics);
+			}
+		}
+		return sharedEdit;
+	}
+
+	private void create(AndroidPublisherExtension publisherExtension, PublishMetrics metrics)
+			throws IOException, GeneralSecurityException {
+		if (EditWarmUp.isStarted(packageName)) {
+			PublishMetrics.Phase phase = metrics.start("warm-up");
+			EditWarmUp.PreparedEdit prepared;
+			try {
+				prepared = EditWarmUp.claim(packageName);
+			} finally {
+				phase.stop();
+			}
+			if (prepared != null) {
+				service = prepared.service;
+				editId = prepared.editId;
+				inventory = prepared.inventory;
+				log.info(String.format("Sharing warmed up edit %s of %s with all tasks of the build", editId,
+						packageName));
+				return;
+			}
+		}
+
+		PublishMetrics.Phase phase = metrics.start("authorization");
+		AndroidPublisher newService;
+		try {
+			newService = AndroidPublisherHelper.init(publisherExtension);
+			AndroidPublisherHelper.authorize(newService);
+		} finally {
+			phase.stop();
+		}
+		phase = metrics.start("edits.insert");
+		AppEdit edit;
+		try {
+			edit = newService.edits().insert(packageName, null /** no content */).execute();
+		} finally {
+			phase.stop();
+		}
+		service = newService;
+		editId = edit.getId();
+		inventory = ApkInventory.load(packageName);
+		log.info(String.format("Sharing edit %s of %s with all tasks of the build", editId, packageName));
+	}
+
+	AndroidPublisher getService() {
+		return service;
+	}
+
+	Edits getEdits() {
+		return service.edits();
+	}
+
+	String getEditId() {
+		return editId;
+	}
+
+	ApkInventory getInventory() {
+		return inventory;
+	}
+
+	/**
+	 * Remembers APKs added to the edit, they are saved to the APK inventory once the edit is committed.
+	 */
+	synchronized void addUploadedApks(List<Apk> apks) {
+		uploadedApks.addAll(apks);
+	}
+
+	/**
+	 * Deletes the file, such as a publish receipt, if the edit is not committed.
+	 */
+	synchronized void deleteOnRollback(File file) {
+		rollbackFiles.add(file);
+	}
+
+	/**
+	 * Deletes the file if the open shared edit of the package is not committed.
+	 */
+	static void deleteOnRollback(String packageName, File file) {
+		SharedEdit sharedEdit;
+		synchronized (SharedEdit.class) {
+			sharedEdit = OPEN.get(packageName);
+		}
+		if (sharedEdit == null) {
+			throw new IllegalStateException(String.format("The shared edit of %s is no longer open", packageName));
+		}
+		sharedEdit.deleteOnRollback(file);
+	}
+
+	static synchronized boolean hasOpenEdits() {
+		return !OPEN.isEmpty();
+	}
+
+	/**
+	 * Commits the shared edits of all packages.
+	 *
+	 * @throws IOException if a commit failed, after trying to commit the other packages
+	 */
+	static void commitAll(PublishMetrics metrics) throws IOException {
+		List<String> failures = new ArrayList<String>();
+		for (SharedEdit sharedEdit : takeAll()) {
+			try {
+				PublishMetrics.Phase phase = metrics.start("commit");
+				AppEdit appEdit;
+				try {
+					appEdit = AndroidPublisherHelper.commit(sharedEdit.getEdits(), sharedEdit.packageName,
+							sharedEdit.editId);
+				} finally {
+					phase.stop();
+				}
+				log.info(String.format("Shared edit %s of %s has been committed", appEdit.getId(),
+						sharedEdit.packageName));
+				sharedEdit.saveInventory();
+			} catch (IOException e) {
+				failures.add(String.format("%s: %s", sharedEdit.packageName, e.getMessage()));
+				sharedEdit.deleteRollbackFiles();
+			}
+		}
+		if (!failures.isEmpty()) {
+			throw new IOException(String.format("Committing %d shared edits failed: %s", failures.size(), failures));
+		}
+	}
+
+	/**
+	 * Deletes the shared edits of all packages without committing them.
+	 */
+	static void rollBackAll() {
+		for (SharedEdit sharedEdit : takeAll()) {
+			sharedEdit.deleteRollbackFiles();
+			try {
+				sharedEdit.getEdits().delete(sharedEdit.packageName, sharedEdit.editId).execute();
+				log.info(String.format("Deleted shared edit %s of %s without committing it", sharedEdit.editId,
+						sharedEdit.packageName));
+			} catch (IOException e) {
+				// Google Play deletes abandoned edits when they expire
+				log.info(String.format("Unable to delete the shared edit of %s: %s", sharedEdit.packageName,
+						e.getMessage()));
+			}
+		}
+	}
+
+	/**
+	 * Deletes the edits the commit task did not get to and lets the next build open shared edits again.
+	 */
+	static void finishBuild() {
+		rollBackAll();
+		synchronized (SharedEdit.class) {
+			closed = false;
+		}
+	}
+
+	/**
+	 * Closes the shared edits of the build and returns the ones whose edit was created.
+	 */
+	private static synchronized List<SharedEdit> takeAll() {
+		closed = true;
+		List<SharedEdit> created = new ArrayList<SharedEdit>();
+		for (SharedEdit sharedEdit : OPEN.values()) {
+			if (sharedEdit.editId != null) {
+				created.add(sharedEdit);
+			}
+		}
+		OPEN.clear();
+		return created;
+	}
+
+	private synchronized void saveInventory() {
+		for (Apk apk : uploadedApks) {
+			inventory.put(apk.getVersionCode(), apk.getBinary().getSha1());
+		}
+		try {
+			inventory.save();
+		} catch (IOException e) {
+			log.warn(String.format("Unable to save the APK inventory: %s", e.getMessage()));
+		}
+	}
+
+	private synchronized void deleteRollbackFiles() {
+		for (File file : rollbackFiles) {
+			if (file.isFile() && !file.delete()) {
+				log.warn(String.format("Unable to delete %s of the uncommitted edit", file));
+			}
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.savillians.gradle.androidpublisher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * Reads the text files holding store listings and release notes.
+ */
+final class TextFiles {
+
+	private TextFiles() {
+	}
+
+	/**
+	 * Reads a UTF-8 file without its trailing line breaks, returning {@code null} if the file does not exist.
+	 */
+	static String readText(File file) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+		StringBuilder text = new StringBuilder();
+		Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+		try {
+			char[] buffer = new char[4096];
+			int read;
+			while ((read = reader.read(buffer)) != -1) {
+				text.append(buffer, 0, read);
+			}
+		} finally {
+			reader.close();
+		}
+		int end = text.length();
+		while (end > 0 && (text.charAt(end - 1) == '\n' || text.charAt(end - 1) == '\r')) {
+			end--;
+		}
+		return text.substring(0, end);
+	}
+}
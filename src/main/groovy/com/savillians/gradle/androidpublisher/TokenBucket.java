@@ -0,0 +1,63 @@
+package com.savillians.gradle.androidpublisher;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter shared by all requests sent by the daemon, so concurrent tasks together stay below the
+ * Google Play API quota.  The bucket holds up to one second worth of permits to absorb short bursts.
+ */
+class TokenBucket {
+	private double permitsPerSecond;
+	private double permits;
+	private long lastRefillNanos = System.nanoTime();
+
+	/**
+	 * Sets the number of permits added per second, a rate of zero or less disables the limiter.
+	 */
+	synchronized void setRate(double permitsPerSecond) {
+		refill();
+		this.permitsPerSecond = permitsPerSecond;
+		this.permits = Math.min(permits, capacity());
+	}
+
+	synchronized double getRate() {
+		return permitsPerSecond;
+	}
+
+	/**
+	 * Takes a permit, waiting until one is available. Permits are reserved in order, so waiting callers are served
+	 * first come, first served.
+	 */
+	void acquire() throws InterruptedIOException {
+		long waitNanos;
+		synchronized (this) {
+			if (permitsPerSecond <= 0) {
+				return;
+			}
+			refill();
+			permits -= 1;
+			waitNanos = permits >= 0 ? 0 : (long) (-permits / permitsPerSecond * TimeUnit.SECONDS.toNanos(1));
+		}
+		if (waitNanos > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the request rate limit");
+			}
+		}
+	}
+
+	private double capacity() {
+		return Math.max(1, permitsPerSecond);
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		if (permitsPerSecond > 0) {
+			permits = Math.min(capacity(), permits + (now - lastRefillNanos) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+		}
+		lastRefillNanos = now;
+	}
+}
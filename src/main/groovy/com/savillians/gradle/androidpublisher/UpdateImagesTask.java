@@ -0,0 +1,356 @@
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.FileContent;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.repackaged.com.google.common.base.Preconditions;
+import com.google.api.client.repackaged.com.google.common.base.Strings;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.AndroidPublisher.Edits;
+import com.google.api.services.androidpublisher.model.AppEdit;
+import com.google.api.services.androidpublisher.model.Image;
+import com.google.api.services.androidpublisher.model.ImagesListResponse;
+import com.google.api.services.androidpublisher.model.ImagesUploadResponse;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Synchronizes the screenshots and graphics of all locales with the contents of the images directory.
+ * <p>
+ * Each locale is a sub-directory of the images directory, such as {@code en-US}, containing one directory per image
+ * type, such as {@code phoneScreenshots} or {@code featureGraphic}, with PNG or JPEG files in the order they are
+ * shown.  The images of Google Play are listed with batched requests and compared by their SHA-1 hash, and only the
+ * images from the first one that differs onwards are deleted and uploaded again, so the order is kept.  Image types
+ * are uploaded in parallel within one edit.  When no image changed or an update failed, the edit is discarded
+ * without being committed.
+ * </p>
+ */
+public class UpdateImagesTask extends DefaultTask {
+	static final List<String> IMAGE_TYPES = Collections.unmodifiableList(Arrays.asList("featureGraphic", "icon",
+			"phoneScreenshots", "promoGraphic", "sevenInchScreenshots", "tenInchScreenshots", "tvBanner",
+			"tvScreenshots", "wearScreenshots"));
+
+	@TaskAction
+	public void updateImages() {
+		AndroidPublisherExtension publisherExtension = getAndVerifyExtension();
+		syncImages(publisherExtension);
+	}
+
+	private AndroidPublisherExtension getAndVerifyExtension() {
+		AndroidPublisherExtension publisherExtension = getProject().getExtensions()
+				.getByType(AndroidPublisherExtension.class);
+
+		Preconditions.checkArgument(!Strings.isNullOrEmpty(
+						publisherExtension.getApplicationName()),
+				"Application name cannot be null or empty!");
+		Preconditions.checkArgument(!Strings.isNullOrEmpty(
+						publisherExtension.getPackageName()),
+				"Package name cannot be null or empty!");
+		Preconditions.checkArgument(!Strings.isNullOrEmpty(
+						publisherExtension.getServiceAccountEmail()),
+				"Service account email cannot be null or empty!");
+		Preconditions.checkArgument(publisherExtension.getServiceAccountKeyFile() != null,
+				"Service account key file cannot be null or empty!");
+		Preconditions.checkArgument(publisherExtension.getConnectionPoolSize() > 0,
+				"Connection pool size must be greater than zero!");
+		Preconditions.checkArgument(publisherExtension.getMaxRetries() >= 0,
+				"Max retries cannot be negative!");
+		Preconditions.checkArgument(publisherExtension.getListingBatchSize() > 0,
+				"Listing batch size must be greater than zero!");
+		Preconditions.checkArgument(publisherExtension.getMaxConcurrentImageUploads() > 0,
+				"Max concurrent image uploads must be greater than zero!");
+		if (publisherExtension.getImagesDir() == null || !publisherExtension.getImagesDir().isDirectory()) {
+			throw new InvalidUserDataException(String.format(
+					"Images directory %s does not exist", publisherExtension.getImagesDir()));
+		}
+
+		return publisherExtension;
+	}
+
+	private List<ImageGroup> readImages(File imagesDir) throws IOException {
+		List<ImageGroup> groups = new ArrayList<ImageGroup>();
+		File[] localeDirs = imagesDir.listFiles();
+		if (localeDirs == null) {
+			return groups;
+		}
+		Arrays.sort(localeDirs);
+		for (File localeDir : localeDirs) {
+			File[] typeDirs = localeDir.listFiles();
+			if (!localeDir.isDirectory() || typeDirs == null) {
+				continue;
+			}
+			Arrays.sort(typeDirs);
+			for (File typeDir : typeDirs) {
+				if (!typeDir.isDirectory()) {
+					continue;
+				}
+				if (!IMAGE_TYPES.contains(typeDir.getName())) {
+					throw new InvalidUserDataException(String.format("Unknown image type %s, expected one of %s",
+							typeDir, IMAGE_TYPES));
+				}
+				ImageGroup group = new ImageGroup(localeDir.getName(), typeDir.getName());
+				File[] files = typeDir.listFiles();
+				if (files != null) {
+					Arrays.sort(files);
+					for (File file : files) {
+						if (file.isFile() && getMimeType(file) != null) {
+							group.files.add(file);
+							group.sha1s.add(Digests.sha1Hex(file));
+						}
+					}
+				}
+				groups.add(group);
+			}
+		}
+		return groups;
+	}
+
+	private static String getMimeType(File file) {
+		String name = file.getName().toLowerCase();
+		if (name.endsWith(".png")) {
+			return "image/png";
+		}
+		if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+			return "image/jpeg";
+		}
+		return null;
+	}
+
+	private void syncImages(AndroidPublisherExtension publisherExtension) {
+		try {
+			List<ImageGroup> groups = readImages(publisherExtension.getImagesDir());
+			getLogger().info("Read {} image types from {}", groups.size(), publisherExtension.getImagesDir());
+
+			AndroidPublisher service;
+			String editId;
+			boolean shared = publisherExtension.isSharedEdit();
+			if (shared) {
+				// Update the images within the edit shared by all tasks of the build
+				SharedEdit sharedEdit = SharedEdit.open(publisherExtension, publisherExtension.getPackageName(),
+						new PublishMetrics(getName()));
+				service = sharedEdit.getService();
+				editId = sharedEdit.getEditId();
+				getLogger().info("Using shared edit with id: {}", editId);
+			} else {
+				service = AndroidPublisherHelper.init(publisherExtension);
+				AppEdit edit = service.edits()
+						.insert(publisherExtension.getPackageName(), null /** no content */)
+						.execute();
+				editId = edit.getId();
+				getLogger().info("Created edit with id: {}", editId);
+			}
+			Edits edits = service.edits();
+			boolean committed = false;
+			try {
+				listImages(service, edits, editId, groups, publisherExtension);
+				int deletes = 0;
+				int uploads = 0;
+				List<ImageGroup> changedGroups = new ArrayList<ImageGroup>();
+				for (ImageGroup group : groups) {
+					if (group.isChanged()) {
+						changedGroups.add(group);
+						deletes += group.remoteImages.size() - group.unchangedCount;
+						uploads += group.files.size() - group.unchangedCount;
+					}
+				}
+
+				if (changedGroups.isEmpty()) {
+					getLogger().lifecycle("All images of {} image types are up to date", groups.size());
+					return;
+				}
+
+				deleteImages(service, edits, editId, changedGroups, publisherExtension);
+				uploadImages(edits, editId, changedGroups, publisherExtension);
+				if (shared) {
+					getLogger().lifecycle("Deleted {} and uploaded {} images in the shared edit", deletes, uploads);
+					return;
+				}
+
+				AppEdit appEdit = AndroidPublisherHelper.commit(edits, publisherExtension.getPackageName(), editId);
+				committed = true;
+				getLogger().info("App edit with id {} has been committed", appEdit.getId());
+				getLogger().lifecycle("Deleted {} and uploaded {} images", deletes, uploads);
+			} finally {
+				// The shared edit may hold the changes of other tasks
+				if (!shared && !committed) {
+					AndroidPublisherHelper.deleteEdit(edits, publisherExtension.getPackageName(), editId);
+				}
+			}
+		} catch (IOException e) {
+			throw new InvalidUserDataException(
+					String.format("Exception was thrown while updating images: %s", e.getMessage()),
+					e);
+		} catch (GeneralSecurityException e) {
+			throw new InvalidUserDataException(
+					String.format("Exception was thrown while updating images: %s", e.getMessage()),
+					e);
+		}
+	}
+
+	/**
+	 * Reads the images Google Play has for every locale and image type of the images directory.
+	 */
+	private void listImages(AndroidPublisher service, Edits edits, String editId, List<ImageGroup> groups,
+							AndroidPublisherExtension publisherExtension) throws IOException {
+		final List<String> failures = new ArrayList<String>();
+		int batchSize = publisherExtension.getListingBatchSize();
+		for (int start = 0; start < groups.size(); start += batchSize) {
+			BatchRequest batch = service.batch();
+			for (final ImageGroup group : groups.subList(start, Math.min(start + batchSize, groups.size()))) {
+				edits.images()
+						.list(publisherExtension.getPackageName(), editId, group.language, group.imageType)
+						.queue(batch, new JsonBatchCallback<ImagesListResponse>() {
+							@Override
+							public void onSuccess(ImagesListResponse response, HttpHeaders responseHeaders) {
+								if (response.getImages() != null) {
+									group.remoteImages.addAll(response.getImages());
+								}
+							}
+
+							@Override
+							public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+								failures.add(String.format("%s: %s", group, error.getMessage()));
+							}
+						});
+			}
+			getLogger().info("Sending batch of {} image list requests", batch.size());
+			batch.execute();
+		}
+		if (!failures.isEmpty()) {
+			throw new IOException(String.format("Listing %d image types failed: %s", failures.size(), failures));
+		}
+	}
+
+	/**
+	 * Deletes the images that differ, and all images after them, before any upload so the type does not exceed its
+	 * number of images.
+	 */
+	private void deleteImages(AndroidPublisher service, Edits edits, String editId, List<ImageGroup> groups,
+							  AndroidPublisherExtension publisherExtension) throws IOException {
+		List<Image> images = new ArrayList<Image>();
+		List<ImageGroup> imageGroups = new ArrayList<ImageGroup>();
+		for (ImageGroup group : groups) {
+			for (Image image : group.remoteImages.subList(group.unchangedCount, group.remoteImages.size())) {
+				images.add(image);
+				imageGroups.add(group);
+			}
+		}
+
+		final List<String> failures = new ArrayList<String>();
+		int batchSize = publisherExtension.getListingBatchSize();
+		for (int start = 0; start < images.size(); start += batchSize) {
+			BatchRequest batch = service.batch();
+			for (int i = start; i < Math.min(start + batchSize, images.size()); i++) {
+				final ImageGroup group = imageGroups.get(i);
+				final Image image = images.get(i);
+				edits.images()
+						.delete(publisherExtension.getPackageName(), editId, group.language, group.imageType,
+								image.getId())
+						.queue(batch, new JsonBatchCallback<Void>() {
+							@Override
+							public void onSuccess(Void content, HttpHeaders responseHeaders) {
+								getLogger().info("Image {} of {} has been deleted", image.getId(), group);
+							}
+
+							@Override
+							public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+								failures.add(String.format("%s %s: %s", group, image.getId(), error.getMessage()));
+							}
+						});
+			}
+			getLogger().info("Sending batch of {} image deletes", batch.size());
+			batch.execute();
+		}
+		if (!failures.isEmpty()) {
+			throw new IOException(String.format("Deleting %d images failed: %s", failures.size(), failures));
+		}
+	}
+
+	/**
+	 * Uploads the images that differ.  The image types are uploaded in parallel and the images of a type one after
+	 * another, in the order they are shown.
+	 */
+	private void uploadImages(final Edits edits, final String editId, List<ImageGroup> groups,
+							  final AndroidPublisherExtension publisherExtension) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.min(groups.size(), publisherExtension.getMaxConcurrentImageUploads()));
+		try {
+			List<Future<Integer>> uploads = new ArrayList<Future<Integer>>();
+			for (final ImageGroup group : groups) {
+				uploads.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws IOException {
+						List<File> files = group.files.subList(group.unchangedCount, group.files.size());
+						for (File file : files) {
+							AndroidPublisher.Edits.Images.Upload upload = edits.images()
+									.upload(publisherExtension.getPackageName(), editId, group.language,
+											group.imageType, new FileContent(getMimeType(file), file));
+							// Images are small enough to be sent in a single request
+							upload.getMediaHttpUploader().setDirectUploadEnabled(true);
+							ImagesUploadResponse response = upload.execute();
+							getLogger().info("Image {} of {} has been uploaded from {}",
+									response.getImage().getId(), group, file.getName());
+						}
+						return files.size();
+					}
+				}));
+			}
+			for (Future<Integer> upload : uploads) {
+				Futures.await(upload);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * The local and remote images of one image type of a locale.
+	 */
+	private static class ImageGroup {
+		final String language;
+		final String imageType;
+		final List<File> files = new ArrayList<File>();
+		final List<String> sha1s = new ArrayList<String>();
+		final List<Image> remoteImages = new ArrayList<Image>();
+		/** The number of leading images that are the same locally and in Google Play. */
+		int unchangedCount;
+
+		ImageGroup(String language, String imageType) {
+			this.language = language;
+			this.imageType = imageType;
+		}
+
+		/**
+		 * Compares the local images with the images of Google Play and returns whether any of them differs.
+		 */
+		boolean isChanged() {
+			unchangedCount = 0;
+			while (unchangedCount < sha1s.size() && unchangedCount < remoteImages.size()
+					&& sha1s.get(unchangedCount).equalsIgnoreCase(remoteImages.get(unchangedCount).getSha1())) {
+				unchangedCount++;
+			}
+			return unchangedCount < sha1s.size() || unchangedCount < remoteImages.size();
+		}
+
+		@Override
+		public String toString() {
+			return language + "/" + imageType;
+		}
+	}
+}
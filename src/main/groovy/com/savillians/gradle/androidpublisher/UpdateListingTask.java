@@ -0,0 +1,232 @@
+/*
+ * Adapted from original Google samples code.
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.repackaged.com.google.common.base.Objects;
+import com.google.api.client.repackaged.com.google.common.base.Preconditions;
+import com.google.api.client.repackaged.com.google.common.base.Strings;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.AndroidPublisher.Edits;
+import com.google.api.services.androidpublisher.AndroidPublisher.Edits.Insert;
+import com.google.api.services.androidpublisher.model.AppEdit;
+import com.google.api.services.androidpublisher.model.Listing;
+import com.google.api.services.androidpublisher.model.ListingsListResponse;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Synchronizes the store listings of all locales with the contents of the listings directory.
+ * <p>
+ * Each locale is a sub-directory of the listings directory, such as {@code en-US}, containing {@code title.txt},
+ * {@code short-description.txt}, {@code full-description.txt} and optionally {@code video.txt}.  The current listings
+ * are read with a single request and only the locales that differ are updated, using batched requests within one
+ * edit.  When no locale changed or an update failed, the edit is discarded without being committed.
+ * </p>
+ */
+public class UpdateListingTask extends DefaultTask {
+	@TaskAction
+	public void updateListing() {
+		AndroidPublisherExtension publisherExtension = getAndVerifyExtension();
+		syncListings(publisherExtension);
+	}
+
+	private AndroidPublisherExtension getAndVerifyExtension() {
+		AndroidPublisherExtension publisherExtension = getProject().getExtensions()
+				.getByType(AndroidPublisherExtension.class);
+
+		Preconditions.checkArgument(!Strings.isNullOrEmpty(
+						publisherExtension.getApplicationName()),
+				"Application name cannot be null or empty!");
+		Preconditions.checkArgument(!Strings.isNullOrEmpty(
+						publisherExtension.getPackageName()),
+				"Package name cannot be null or empty!");
+		Preconditions.checkArgument(!Strings.isNullOrEmpty(
+						publisherExtension.getServiceAccountEmail()),
+				"Service account email cannot be null or empty!");
+		Preconditions.checkArgument(publisherExtension.getServiceAccountKeyFile() != null,
+				"Service account key file cannot be null or empty!");
+		Preconditions.checkArgument(publisherExtension.getConnectionPoolSize() > 0,
+				"Connection pool size must be greater than zero!");
+		Preconditions.checkArgument(publisherExtension.getMaxRetries() >= 0,
+				"Max retries cannot be negative!");
+		Preconditions.checkArgument(publisherExtension.getListingBatchSize() > 0,
+				"Listing batch size must be greater than zero!");
+		if (publisherExtension.getListingsDir() == null || !publisherExtension.getListingsDir().isDirectory()) {
+			throw new InvalidUserDataException(String.format(
+					"Listings directory %s does not exist", publisherExtension.getListingsDir()));
+		}
+
+		return publisherExtension;
+	}
+
+	private Map<String, Listing> readListings(File listingsDir) throws IOException {
+		Map<String, Listing> listings = new HashMap<String, Listing>();
+		File[] localeDirs = listingsDir.listFiles();
+		if (localeDirs == null) {
+			return listings;
+		}
+		Arrays.sort(localeDirs);
+		for (File localeDir : localeDirs) {
+			if (!localeDir.isDirectory()) {
+				continue;
+			}
+			Listing listing = new Listing()
+					.setLanguage(localeDir.getName())
+					.setTitle(TextFiles.readText(new File(localeDir, "title.txt")))
+					.setShortDescription(TextFiles.readText(new File(localeDir, "short-description.txt")))
+					.setFullDescription(TextFiles.readText(new File(localeDir, "full-description.txt")))
+					.setVideo(TextFiles.readText(new File(localeDir, "video.txt")));
+			listings.put(localeDir.getName(), listing);
+		}
+		return listings;
+	}
+
+	private static boolean isSameListing(Listing local, Listing remote) {
+		return remote != null
+				&& Objects.equal(Strings.emptyToNull(local.getTitle()), Strings.emptyToNull(remote.getTitle()))
+				&& Objects.equal(Strings.emptyToNull(local.getShortDescription()),
+						Strings.emptyToNull(remote.getShortDescription()))
+				&& Objects.equal(Strings.emptyToNull(local.getFullDescription()),
+						Strings.emptyToNull(remote.getFullDescription()))
+				&& Objects.equal(Strings.emptyToNull(local.getVideo()), Strings.emptyToNull(remote.getVideo()));
+	}
+
+	private void syncListings(AndroidPublisherExtension publisherExtension) {
+		try {
+			Map<String, Listing> localListings = readListings(publisherExtension.getListingsDir());
+			getLogger().info("Read {} listings from {}", localListings.size(), publisherExtension.getListingsDir());
+
+			AndroidPublisher service;
+			String editId;
+			boolean shared = publisherExtension.isSharedEdit();
+			if (shared) {
+				// Update the listings within the edit shared by all tasks of the build
+				SharedEdit sharedEdit = SharedEdit.open(publisherExtension, publisherExtension.getPackageName(),
+						new PublishMetrics(getName()));
+				service = sharedEdit.getService();
+				editId = sharedEdit.getEditId();
+				getLogger().info("Using shared edit with id: {}", editId);
+			} else {
+				// Create the API service
+				service = AndroidPublisherHelper.init(publisherExtension);
+
+				// Create a new edit to make changes to your listing
+				Insert editRequest = service.edits()
+						.insert(publisherExtension.getPackageName(), null /** no content */);
+				AppEdit edit = editRequest.execute();
+				editId = edit.getId();
+				getLogger().info("Created edit with id: {}", editId);
+			}
+			final Edits edits = service.edits();
+			boolean committed = false;
+			try {
+				// Fetch all current listings at once and keep the locales that differ
+				ListingsListResponse response = edits.listings()
+						.list(publisherExtension.getPackageName(), editId)
+						.execute();
+				Map<String, Listing> remoteListings = new HashMap<String, Listing>();
+				if (response.getListings() != null) {
+					for (Listing listing : response.getListings()) {
+						remoteListings.put(listing.getLanguage(), listing);
+					}
+				}
+				List<Listing> changedListings = new ArrayList<Listing>();
+				for (Listing listing : localListings.values()) {
+					if (!isSameListing(listing, remoteListings.get(listing.getLanguage()))) {
+						changedListings.add(listing);
+					}
+				}
+
+				if (changedListings.isEmpty()) {
+					getLogger().lifecycle("All {} listings are up to date", localListings.size());
+					return;
+				}
+
+				updateListings(service, edits, editId, changedListings, publisherExtension);
+				if (shared) {
+					getLogger().lifecycle("Updated {} of {} listings in the shared edit", changedListings.size(),
+							localListings.size());
+					return;
+				}
+
+				// Commit changes for edit.
+				AppEdit appEdit = AndroidPublisherHelper.commit(edits, publisherExtension.getPackageName(), editId);
+				committed = true;
+				getLogger().info("App edit with id {} has been committed", appEdit.getId());
+				getLogger().lifecycle("Updated {} of {} listings", changedListings.size(), localListings.size());
+			} finally {
+				// The shared edit may hold the changes of other tasks
+				if (!shared && !committed) {
+					AndroidPublisherHelper.deleteEdit(edits, publisherExtension.getPackageName(), editId);
+				}
+			}
+		} catch (IOException e) {
+			throw new InvalidUserDataException(
+					String.format("Exception was thrown while updating listings: %s", e.getMessage()),
+					e);
+		} catch (GeneralSecurityException e) {
+			throw new InvalidUserDataException(
+					String.format("Exception was thrown while updating listings: %s", e.getMessage()),
+					e);
+		}
+	}
+
+	private void updateListings(AndroidPublisher service, Edits edits, String editId, List<Listing> listings,
+								AndroidPublisherExtension publisherExtension) throws IOException {
+		final List<String> failures = new ArrayList<String>();
+		int batchSize = publisherExtension.getListingBatchSize();
+		for (int start = 0; start < listings.size(); start += batchSize) {
+			BatchRequest batch = service.batch();
+			for (final Listing listing : listings.subList(start, Math.min(start + batchSize, listings.size()))) {
+				edits.listings()
+						.update(publisherExtension.getPackageName(), editId, listing.getLanguage(), listing)
+						.queue(batch, new JsonBatchCallback<Listing>() {
+							@Override
+							public void onSuccess(Listing updatedListing, HttpHeaders responseHeaders) {
+								getLogger().info("Listing {} has been updated", listing.getLanguage());
+							}
+
+							@Override
+							public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+								failures.add(String.format("%s: %s", listing.getLanguage(), error.getMessage()));
+							}
+						});
+			}
+			getLogger().info("Sending batch of {} listing updates", batch.size());
+			batch.execute();
+		}
+		if (!failures.isEmpty()) {
+			throw new IOException(String.format("Updating %d listings failed: %s", failures.size(), failures));
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.client.googleapis.media.MediaHttpUploader;
+import com.google.api.client.googleapis.media.MediaHttpUploaderProgressListener;
+import org.gradle.api.logging.Logger;
+
+import java.io.IOException;
+
+/**
+ * Logs the progress and throughput of each chunk of a resumable upload.
+ */
+class UploadProgressLogger implements MediaHttpUploaderProgressListener {
+	private final Logger logger;
+	private final String fileName;
+	private final long fileLength;
+
+	private long startTime;
+	private long lastTime;
+	private long lastBytes;
+
+	UploadProgressLogger(Logger logger, String fileName, long fileLength) {
+		this.logger = logger;
+		this.fileName = fileName;
+		this.fileLength = fileLength;
+	}
+
+	@Override
+	public void progressChanged(MediaHttpUploader uploader) throws IOException {
+		long now = System.currentTimeMillis();
+		switch (uploader.getUploadState()) {
+			case INITIATION_STARTED:
+				startTime = now;
+				lastTime = now;
+				lastBytes = 0;
+				logger.info("Starting upload of {} ({} bytes)", fileName, fileLength);
+				break;
+			case MEDIA_IN_PROGRESS:
+				long bytes = uploader.getNumBytesUploaded();
+				logger.info("Uploaded {} of {} bytes of {} ({}%) at {} KB/s", bytes, fileLength, fileName,
+						fileLength > 0 ? bytes * 100 / fileLength : 100,
+						kilobytesPerSecond(bytes - lastBytes, now - lastTime));
+				lastTime = now;
+				lastBytes = bytes;
+				break;
+			case MEDIA_COMPLETE:
+				logger.info("Finished upload of {} in {} ms at {} KB/s", fileName, now - startTime,
+						kilobytesPerSecond(fileLength, now - startTime));
+				break;
+			default:
+				break;
+		}
+	}
+
+	private static long kilobytesPerSecond(long bytes, long millis) {
+		return millis > 0 ? bytes * 1000 / 1024 / millis : 0;
+	}
+}
@@ -0,0 +1,149 @@
+package com.savillians.gradle.androidpublisher
+
+import com.google.api.services.androidpublisher.model.Track
+import org.gradle.api.InvalidUserDataException
+import spock.lang.Unroll
+
+import java.util.concurrent.TimeUnit
+
+class AndroidPromoteTaskSpec extends FakePlayServerSpec {
+	AndroidPromoteTask task
+
+	def setup() {
+		task = project.tasks.create('androidPromote', AndroidPromoteTask)
+
+		(1..3).each { server.addApk(packageName, it, "sha$it") }
+		server.setTrack(packageName, new Track().setTrack('alpha').setVersionCodes([2, 3]))
+		server.setTrack(packageName, new Track().setTrack('beta').setVersionCodes([1]))
+	}
+
+	def "promotes the newest version code of the track to the promotion track"() {
+		given:
+		publisherExtension.track = 'alpha'
+		publisherExtension.promotionTrack = 'beta'
+
+		when:
+		task.promote()
+
+		then:
+		server.getTrack(packageName, 'alpha').versionCodes == [2]
+		server.getTrack(packageName, 'beta').versionCodes == [3]
+		server.getRequestCount('edits.commit') == 1
+	}
+
+	def "moves one version code through a chain and leaves the tracks in between empty"() {
+		given:
+		publisherExtension.promotionChain = ['alpha', 'beta', 'rollout']
+		publisherExtension.userFraction = 0.2
+
+		when:
+		task.promote()
+
+		then:
+		server.getTrack(packageName, 'alpha').versionCodes == [2]
+		server.getTrack(packageName, 'beta').versionCodes.isEmpty()
+		server.getTrack(packageName, 'rollout').versionCodes == [3]
+		server.getTrack(packageName, 'rollout').userFraction == 0.2d
+		server.getRequestCount('tracks.update') == 3
+	}
+
+	def "updates the user fraction of the staged rollout"() {
+		given:
+		server.setTrack(packageName, new Track().setTrack('rollout').setVersionCodes([3]).setUserFraction(0.1))
+		server.setTrack(packageName, new Track().setTrack('alpha').setVersionCodes([2]))
+		publisherExtension.promotionChain = ['rollout']
+		publisherExtension.userFraction = 0.5
+
+		when:
+		task.promote()
+
+		then:
+		server.getTrack(packageName, 'rollout').versionCodes == [3]
+		server.getTrack(packageName, 'rollout').userFraction == 0.5d
+	}
+
+	def "fails when the source track has no APK"() {
+		given:
+		publisherExtension.promotionChain = ['production', 'alpha']
+
+		when:
+		task.promote()
+
+		then:
+		InvalidUserDataException e = thrown()
+		e.message.contains('production')
+		server.getTrack(packageName, 'alpha').versionCodes == [2, 3]
+	}
+
+	@Unroll
+	def "retries a track update whose connection dropped with #transport"() {
+		given:
+		useTransport(transport)
+		publisherExtension.promotionChain = ['alpha', 'beta']
+		server.failNext('tracks.update', FakePlayServer.DROP_CONNECTION, 1)
+
+		when:
+		task.promote()
+
+		then:
+		server.getTrack(packageName, 'beta').versionCodes == [3]
+		server.getRequestCount('tracks.update') == 3
+
+		where:
+		transport << [AndroidPublisherHelper.TRANSPORT_APACHE, AndroidPublisherHelper.TRANSPORT_OKHTTP]
+	}
+
+	@Unroll
+	def "reports a commit whose connection dropped on #transport as possibly applied"() {
+		given:
+		useTransport(transport)
+		publisherExtension.promotionChain = ['alpha', 'beta']
+		server.failNext('edits.commit', FakePlayServer.DROP_CONNECTION, 1)
+
+		when:
+		task.promote()
+
+		then:
+		InvalidUserDataException e = thrown()
+		e.message.contains('may have been applied')
+		server.getRequestCount('edits.commit') == 1
+
+		where:
+		transport << [AndroidPublisherHelper.TRANSPORT_APACHE, AndroidPublisherHelper.TRANSPORT_OKHTTP]
+	}
+
+	def "fails when the edit expires while requests are slow"() {
+		given:
+		publisherExtension.promotionChain = ['alpha', 'beta']
+		server.setLatency(200, TimeUnit.MILLISECONDS)
+		server.setEditTimeout(500, TimeUnit.MILLISECONDS)
+
+		when:
+		task.promote()
+
+		then:
+		InvalidUserDataException e = thrown()
+		e.message.contains('expired')
+		server.getTrack(packageName, 'beta').versionCodes == [1]
+	}
+
+	def "adds the promotion to the shared edit"() {
+		given:
+		publisherExtension.promotionChain = ['alpha', 'beta']
+		publisherExtension.sharedEdit = true
+
+		when:
+		task.promote()
+
+		then:
+		server.getTrack(packageName, 'beta').versionCodes == [1]
+		server.getOpenEditCount(packageName) == 1
+
+		when:
+		SharedEdit.commitAll(new PublishMetrics('spec'))
+
+		then:
+		server.getTrack(packageName, 'beta').versionCodes == [3]
+		server.getRequestCount('edits.commit') == 1
+	}
+}
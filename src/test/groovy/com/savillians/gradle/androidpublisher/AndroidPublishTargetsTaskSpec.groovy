@@ -0,0 +1,91 @@
+package com.savillians.gradle.androidpublisher
+
+import org.gradle.api.logging.Logging
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class AndroidPublishTargetsTaskSpec extends FakePlayServerSpec {
+	AndroidPublishTargetsTask task
+
+	def setup() {
+		task = project.tasks.create('androidPublishTargets', AndroidPublishTargetsTask)
+		// The APKs are random bytes
+		publisherExtension.verifyApks = false
+		publisherExtension.resumableUpload = false
+		['acme', 'globex'].each { name ->
+			def apkFile = project.file("${name}.apk")
+			def bytes = new byte[1000]
+			new Random().nextBytes(bytes)
+			apkFile.bytes = bytes
+			def target = publisherExtension.targets.create(name)
+			target.packageName = "$packageName.$name"
+			target.apkFile = apkFile
+		}
+	}
+
+	def cleanup() {
+		['acme', 'globex'].each {
+			new File(AndroidPublisherHelper.getDataStoreDir(), "journals/$packageName.$it").deleteDir()
+		}
+	}
+
+	def "publishes every target in its own edit"() {
+		when:
+		task.publishTargets()
+
+		then:
+		server.getTrack("${packageName}.acme", 'alpha').versionCodes == [1]
+		server.getTrack("${packageName}.globex", 'alpha').versionCodes == [1]
+		server.getRequestCount('edits.commit') == 2
+	}
+
+	def "waits for a slot of the parallel publication limit"() {
+		given:
+		publisherExtension.maxParallelPublications = 1
+		def release = new CountDownLatch(1)
+		def taken = new CountDownLatch(1)
+		def executor = Executors.newFixedThreadPool(2)
+		def other = executor.submit({
+			PublicationLimiter.run(publisherExtension, Logging.getLogger(AndroidPublishTargetsTaskSpec), 'other', {
+				taken.countDown()
+				release.await()
+			} as Callable)
+		} as Callable)
+		taken.await()
+
+		when:
+		def publication = executor.submit({ task.publishTargets() } as Callable)
+		Thread.sleep(500)
+
+		then:
+		server.getRequestCount('edits.insert') == 0
+
+		when:
+		release.countDown()
+		other.get(10, TimeUnit.SECONDS)
+		publication.get(30, TimeUnit.SECONDS)
+
+		then:
+		server.getRequestCount('edits.commit') == 2
+
+		cleanup:
+		release.countDown()
+		executor.shutdownNow()
+	}
+
+	def "rejects an upload chunk size that is not a multiple of 256 KB"() {
+		given:
+		publisherExtension.uploadChunkSize = 1000
+
+		when:
+		task.publishTargets()
+
+		then:
+		IllegalArgumentException e = thrown()
+		e.message.contains('256 KB')
+		server.getRequestCount('edits.insert') == 0
+	}
+}
@@ -0,0 +1,34 @@
+package com.savillians.gradle.androidpublisher
+
+import com.google.api.client.auth.oauth2.BearerToken
+import com.google.api.client.auth.oauth2.Credential
+import spock.lang.Specification
+
+class AndroidPublisherHelperSpec extends Specification {
+	private static final int POOL_SIZE = AndroidPublisherHelper.DEFAULT_CONNECTION_POOL_SIZE
+
+	def cleanup() {
+		AndroidPublisherHelper.newTrustedTransport(AndroidPublisherHelper.TRANSPORT_APACHE, POOL_SIZE)
+		AndroidPublisherHelper.CREDENTIALS.clear()
+	}
+
+	def "drops the cached credentials together with the clients when the transport changes"() {
+		given:
+		AndroidPublisherHelper.newTrustedTransport(AndroidPublisherHelper.TRANSPORT_APACHE, POOL_SIZE)
+		AndroidPublisherHelper.CREDENTIALS.put('publisher@example.com:sha1:false',
+				new Credential(BearerToken.authorizationHeaderAccessMethod()))
+
+		when:
+		AndroidPublisherHelper.newTrustedTransport(AndroidPublisherHelper.TRANSPORT_APACHE, POOL_SIZE)
+
+		then:
+		AndroidPublisherHelper.CREDENTIALS.size() == 1
+
+		when:
+		AndroidPublisherHelper.newTrustedTransport(AndroidPublisherHelper.TRANSPORT_OKHTTP, POOL_SIZE)
+
+		then:
+		AndroidPublisherHelper.CREDENTIALS.isEmpty()
+		AndroidPublisherHelper.CLIENTS.isEmpty()
+	}
+}
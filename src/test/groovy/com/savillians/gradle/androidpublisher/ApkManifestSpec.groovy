@@ -0,0 +1,238 @@
+package com.savillians.gradle.androidpublisher
+
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+class ApkManifestSpec extends Specification {
+	private static final int ATTR_VERSION_CODE = 0x0101021b
+	private static final int ATTR_MIN_SDK_VERSION = 0x0101020c
+	private static final int TYPE_STRING = 0x03
+	private static final int TYPE_INT_DEC = 0x10
+	private static final int TYPE_INT_HEX = 0x11
+
+	List<File> apkFiles = []
+
+	def cleanup() {
+		apkFiles*.delete()
+	}
+
+	def "reads the package name, version code and minimum SDK version"() {
+		given:
+		def apk = apk(manifest(utf8, 'com.example.app', TYPE_INT_DEC, 42, TYPE_INT_DEC, 21), deflated)
+
+		when:
+		def manifest = ApkManifest.read(apk)
+
+		then:
+		manifest.packageName == 'com.example.app'
+		manifest.versionCode == 42
+		manifest.minSdkVersion == 21
+
+		where:
+		utf8  | deflated
+		true  | true
+		true  | false
+		false | true
+		false | false
+	}
+
+	def "reads a package name with characters outside ASCII"() {
+		given:
+		def apk = apk(manifest(utf8, 'com.example.caf\u00e9\u4e2d', TYPE_INT_HEX, 0x2a, TYPE_INT_DEC, 9), true)
+
+		expect:
+		ApkManifest.read(apk).packageName == 'com.example.caf\u00e9\u4e2d'
+		ApkManifest.read(apk).versionCode == 42
+
+		where:
+		utf8 << [true, false]
+	}
+
+	def "reads a minimum SDK version written as a string"() {
+		given:
+		def apk = apk(manifest(true, 'com.example.app', TYPE_INT_DEC, 7, TYPE_STRING, minSdkVersion), false)
+
+		expect:
+		ApkManifest.read(apk).minSdkVersion == expected
+
+		where:
+		minSdkVersion | expected
+		'19'          | 19
+		'L'           | null
+	}
+
+	def "has no minimum SDK version when the manifest does not declare one"() {
+		given:
+		def apk = apk(manifest(true, 'com.example.app', TYPE_INT_DEC, 7, null, null), true)
+
+		expect:
+		ApkManifest.read(apk).minSdkVersion == null
+	}
+
+	def "rejects a file that is not an APK"() {
+		given:
+		def file = tempFile()
+		file.bytes = content
+
+		when:
+		ApkManifest.read(file)
+
+		then:
+		IOException e = thrown()
+		e.message.contains('is not a valid APK')
+
+		where:
+		content << [
+				'not a zip file'.bytes,
+				zip('classes.dex', 'dex'.bytes, true),
+				zip('AndroidManifest.xml', '<manifest package="com.example.app"/>'.bytes, true)
+		]
+	}
+
+	def "rejects a manifest without a version code"() {
+		given:
+		def apk = apk(manifest(true, 'com.example.app', null, null, TYPE_INT_DEC, 21), true)
+
+		when:
+		ApkManifest.read(apk)
+
+		then:
+		IOException e = thrown()
+		e.message.contains('has no package name or version code')
+	}
+
+	private File apk(byte[] manifest, boolean deflated) {
+		def file = tempFile()
+		file.bytes = zip('AndroidManifest.xml', manifest, deflated)
+		return file
+	}
+
+	private File tempFile() {
+		def file = File.createTempFile('manifest', '.apk')
+		apkFiles << file
+		return file
+	}
+
+	/**
+	 * Zips the entry after another one, so the manifest is not at the start of the APK.
+	 */
+	private static byte[] zip(String name, byte[] content, boolean deflated) {
+		def bytes = new ByteArrayOutputStream()
+		def zip = new ZipOutputStream(bytes)
+		zip.putNextEntry(new ZipEntry('res/raw/first.txt'))
+		zip.write('first'.bytes)
+		def entry = new ZipEntry(name)
+		if (!deflated) {
+			def crc = new CRC32()
+			crc.update(content)
+			entry.method = ZipEntry.STORED
+			entry.size = content.length
+			entry.compressedSize = content.length
+			entry.crc = crc.value
+		}
+		zip.putNextEntry(entry)
+		zip.write(content)
+		zip.close()
+		return bytes.toByteArray()
+	}
+
+	/**
+	 * Writes a binary manifest with a {@code manifest} element and, if a minimum SDK version type is given, a
+	 * {@code uses-sdk} element.  The attribute names of the android namespace are the first strings of the pool,
+	 * mapped to their resource ids.
+	 */
+	private static byte[] manifest(boolean utf8, String packageName, Integer versionCodeType, Integer versionCode,
+								   Integer minSdkType, Object minSdkVersion) {
+		List<String> strings = ['versionCode', 'minSdkVersion', 'manifest', 'uses-sdk', 'package', packageName]
+		List<byte[]> chunks = [stringPool(strings, utf8), resourceMap([ATTR_VERSION_CODE, ATTR_MIN_SDK_VERSION])]
+
+		List<int[]> manifestAttributes = [[strings.indexOf('package'), strings.indexOf(packageName), TYPE_STRING,
+										   strings.indexOf(packageName)] as int[]]
+		if (versionCodeType != null) {
+			manifestAttributes << ([0, -1, versionCodeType, versionCode] as int[])
+		}
+		chunks << startElement(strings.indexOf('manifest'), manifestAttributes)
+		if (minSdkType != null) {
+			int data
+			if (minSdkType == TYPE_STRING) {
+				strings << (String) minSdkVersion
+				data = strings.size() - 1
+				chunks[0] = stringPool(strings, utf8)
+			} else {
+				data = (Integer) minSdkVersion
+			}
+			chunks << startElement(strings.indexOf('uses-sdk'), [[1, -1, minSdkType, data] as int[]])
+		}
+
+		int size = 8 + chunks.sum { it.length }
+		def xml = buffer(size)
+		xml.putShort((short) 0x0003).putShort((short) 8).putInt(size)
+		chunks.each { xml.put(it) }
+		return xml.array()
+	}
+
+	private static byte[] stringPool(List<String> strings, boolean utf8) {
+		def data = new ByteArrayOutputStream()
+		List<Integer> offsets = []
+		strings.each { String string ->
+			offsets << data.size()
+			if (utf8) {
+				byte[] bytes = string.getBytes('UTF-8')
+				data.write(string.length())
+				data.write(bytes.length)
+				data.write(bytes)
+				data.write(0)
+			} else {
+				def chars = buffer(string.length() * 2 + 4)
+				chars.putShort((short) string.length())
+				string.chars.each { chars.putChar(it) }
+				chars.putShort((short) 0)
+				data.write(chars.array())
+			}
+		}
+		while (data.size() % 4 != 0) {
+			data.write(0)
+		}
+		int headerSize = 28
+		int stringsStart = headerSize + strings.size() * 4
+		def chunk = buffer(stringsStart + data.size())
+		chunk.putShort((short) 0x0001).putShort((short) headerSize).putInt(chunk.capacity())
+		chunk.putInt(strings.size()).putInt(0).putInt(utf8 ? 1 << 8 : 0).putInt(stringsStart).putInt(0)
+		offsets.each { chunk.putInt(it) }
+		chunk.put(data.toByteArray())
+		return chunk.array()
+	}
+
+	private static byte[] resourceMap(List<Integer> resourceIds) {
+		def chunk = buffer(8 + resourceIds.size() * 4)
+		chunk.putShort((short) 0x0180).putShort((short) 8).putInt(chunk.capacity())
+		resourceIds.each { chunk.putInt(it) }
+		return chunk.array()
+	}
+
+	/**
+	 * @param attributes the name index, raw value index, data type and data of each attribute
+	 */
+	private static byte[] startElement(int name, List<int[]> attributes) {
+		def chunk = buffer(16 + 20 + attributes.size() * 20)
+		chunk.putShort((short) 0x0102).putShort((short) 16).putInt(chunk.capacity())
+		chunk.putInt(1).putInt(-1)
+		chunk.putInt(-1).putInt(name)
+		chunk.putShort((short) 20).putShort((short) 20).putShort((short) attributes.size())
+		chunk.putShort((short) 0).putShort((short) 0).putShort((short) 0)
+		attributes.each { int[] attribute ->
+			chunk.putInt(-1).putInt(attribute[0]).putInt(attribute[1])
+			chunk.putShort((short) 8).put((byte) 0).put((byte) attribute[2]).putInt(attribute[3])
+		}
+		return chunk.array()
+	}
+
+	private static ByteBuffer buffer(int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN)
+	}
+}
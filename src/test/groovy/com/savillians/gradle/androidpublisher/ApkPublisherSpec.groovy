@@ -0,0 +1,244 @@
+package com.savillians.gradle.androidpublisher
+
+import com.google.api.client.googleapis.media.MediaHttpUploader
+import org.gradle.api.logging.Logging
+import spock.lang.Unroll
+
+import java.util.concurrent.TimeUnit
+
+class ApkPublisherSpec extends FakePlayServerSpec {
+	private static final String PUBLICATION = ':app:androidPublish'
+
+	List<File> files = []
+
+	def setup() {
+		publisherExtension.track = 'alpha'
+		// The APKs are random bytes
+		publisherExtension.verifyApks = false
+		publisherExtension.resumableUpload = false
+	}
+
+	def cleanup() {
+		files*.delete()
+		new File(AndroidPublisherHelper.getDataStoreDir(), "journals/$packageName").deleteDir()
+	}
+
+	def "publishes the APKs to the track in one edit"() {
+		when:
+		def receipt = publish(file(1000), file(1000))
+
+		then:
+		receipt.apks*.versionCode.sort() == [1, 2]
+		server.getTrack(packageName, 'alpha').versionCodes.sort() == [1, 2]
+		server.getRequestCount('edits.insert') == 1
+		server.getOpenEditCount(packageName) == 0
+	}
+
+	def "uploads the expansion file once and attaches it to all APKs"() {
+		given:
+		publisherExtension.mainExpansionFile = file(1000)
+
+		when:
+		publish(file(1000), file(1000))
+
+		then:
+		server.getTrack(packageName, 'alpha').versionCodes.sort() == [1, 2]
+		expansionFileSizes() == [1000]
+		server.getRequestCount('expansionfiles.upload') == 1
+	}
+
+	def "retries the failed chunks of a resumable upload"() {
+		given:
+		publisherExtension.resumableUpload = true
+		publisherExtension.uploadChunkSize = MediaHttpUploader.MINIMUM_CHUNK_SIZE
+		server.failNext('upload.chunk', 503, 1)
+		server.failNext('upload.chunk', FakePlayServer.DROP_CONNECTION, 1)
+
+		when:
+		publish(file(3 * MediaHttpUploader.MINIMUM_CHUNK_SIZE))
+
+		then:
+		server.getTrack(packageName, 'alpha').versionCodes == [1]
+		server.getApks(packageName)[0].binary.sha1 == Digests.sha1Hex(files[0])
+		// The failed chunks are sent again, after asking for the bytes received when the connection dropped
+		server.getRequestCount('upload.chunk') >= 5
+	}
+
+	def "publishes when chunks fail at random"() {
+		given:
+		publisherExtension.resumableUpload = true
+		publisherExtension.uploadChunkSize = MediaHttpUploader.MINIMUM_CHUNK_SIZE
+		server.failRandomly('upload.chunk', 503, 0.2)
+
+		when:
+		publish(file(2 * MediaHttpUploader.MINIMUM_CHUNK_SIZE), file(2 * MediaHttpUploader.MINIMUM_CHUNK_SIZE))
+
+		then:
+		server.getTrack(packageName, 'alpha').versionCodes.sort() == [1, 2]
+	}
+
+	@Unroll
+	def "retries requests over the quota and requests whose connection dropped with #transport"() {
+		given:
+		useTransport(transport)
+		server.failNext('tracks.update', FakePlayServer.DROP_CONNECTION, 1)
+		server.failNext('edits.commit', 429, 1)
+
+		when:
+		publish(file(1000))
+
+		then:
+		server.getTrack(packageName, 'alpha').versionCodes == [1]
+		server.getRequestCount('tracks.update') == 2
+		server.getRequestCount('edits.commit') == 2
+
+		where:
+		transport << [AndroidPublisherHelper.TRANSPORT_APACHE, AndroidPublisherHelper.TRANSPORT_OKHTTP]
+	}
+
+	def "does not retry a failed direct upload"() {
+		given:
+		server.failNext('apks.upload', 503, 1)
+
+		when:
+		publish(file(1000))
+
+		then:
+		thrown(IOException)
+		server.getRequestCount('apks.upload') == 1
+		server.getTrack(packageName, 'alpha').versionCodes.isEmpty()
+	}
+
+	@Unroll
+	def "reports a commit failing with #failure on #transport as possibly applied"() {
+		given:
+		useTransport(transport)
+		server.failNext('edits.commit', failure, 1)
+
+		when:
+		publish(file(1000))
+
+		then:
+		IOException e = thrown()
+		e.message.contains('may have been applied')
+		server.getRequestCount('edits.commit') == 1
+
+		where:
+		[failure, transport] << [[503, FakePlayServer.DROP_CONNECTION],
+				[AndroidPublisherHelper.TRANSPORT_APACHE, AndroidPublisherHelper.TRANSPORT_OKHTTP]].combinations()
+	}
+
+	def "resumes a publication in its edit without uploading again"() {
+		given:
+		publisherExtension.mainExpansionFile = file(1000)
+		server.failNext('edits.commit', 400, 1)
+		def apks = [file(1000), file(1000)]
+
+		when:
+		publish(apks as File[])
+
+		then:
+		thrown(IOException)
+		server.getTrack(packageName, 'alpha').versionCodes.isEmpty()
+
+		when:
+		publish(apks as File[])
+
+		then:
+		server.getTrack(packageName, 'alpha').versionCodes.sort() == [1, 2]
+		expansionFileSizes() == [1000]
+		server.getRequestCount('edits.insert') == 1
+		server.getRequestCount('apks.upload') == 2
+		server.getRequestCount('expansionfiles.upload') == 1
+		server.getRequestCount('expansionfiles.update') == 1
+		server.getRequestCount('tracks.update') == 1
+		PublishJournal.load(packageName, PUBLICATION, 'alpha') == null
+	}
+
+	def "uploads an expansion file again when it changed before the publication resumed"() {
+		given:
+		def expansionFile = file(1000)
+		publisherExtension.mainExpansionFile = expansionFile
+		server.failNext('edits.commit', 400, 1)
+		def apks = [file(1000), file(1000)]
+
+		when:
+		publish(apks as File[])
+
+		then:
+		thrown(IOException)
+
+		when:
+		expansionFile.append([1] as byte[])
+		publish(apks as File[])
+
+		then:
+		expansionFileSizes() == [1001]
+		server.getRequestCount('apks.upload') == 2
+		server.getRequestCount('expansionfiles.upload') == 2
+	}
+
+	def "starts over when the edit of an interrupted publication expired"() {
+		given:
+		server.setEditTimeout(1, TimeUnit.SECONDS)
+		server.failNext('edits.commit', 400, 1)
+		def apk = file(1000)
+
+		when:
+		publish(apk)
+
+		then:
+		thrown(IOException)
+
+		when:
+		Thread.sleep(1100)
+		server.setEditTimeout(1, TimeUnit.HOURS)
+		publish(apk)
+
+		then:
+		server.getTrack(packageName, 'alpha').versionCodes == [1]
+		server.getRequestCount('edits.insert') == 2
+		server.getRequestCount('apks.upload') == 2
+	}
+
+	def "fails when the edit expires while requests are slow"() {
+		given:
+		server.setLatency(200, TimeUnit.MILLISECONDS)
+		server.setEditTimeout(500, TimeUnit.MILLISECONDS)
+
+		when:
+		publish(file(1000), file(1000))
+
+		then:
+		IOException e = thrown()
+		e.message.contains('expired')
+		server.getTrack(packageName, 'alpha').versionCodes.isEmpty()
+	}
+
+	/**
+	 * Returns the sizes of the uploaded main expansion files, after checking that the other APKs reference one.  The
+	 * file is uploaded to the APK whose upload finished first.
+	 */
+	private List<Long> expansionFileSizes() {
+		def expansionFiles = server.getApks(packageName).collectEntries {
+			[(it.versionCode): server.getExpansionFile(packageName, it.versionCode, 'main')]
+		}
+		def uploaded = expansionFiles.findAll { it.value.fileSize != null }
+		assert expansionFiles.values().every { it.fileSize != null || uploaded.containsKey(it.referencesVersion) }
+		return uploaded.values()*.fileSize
+	}
+
+	private PublishReceipt publish(File... apkFiles) {
+		return new ApkPublisher(Logging.getLogger(ApkPublisherSpec), publisherExtension, packageName, PUBLICATION,
+				'alpha', new PublishMetrics('spec')).publish(apkFiles as List)
+	}
+
+	private File file(int size) {
+		def file = File.createTempFile('publish', '.apk')
+		def bytes = new byte[size]
+		new Random().nextBytes(bytes)
+		file.bytes = bytes
+		files << file
+		return file
+	}
+}
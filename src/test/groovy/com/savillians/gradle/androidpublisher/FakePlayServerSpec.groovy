@@ -0,0 +1,61 @@
+package com.savillians.gradle.androidpublisher
+
+import com.google.api.client.http.HttpTransport
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+import spock.lang.Specification
+import spock.lang.Timeout
+
+/**
+ * Base of the specs that publish to a {@link FakePlayServer}.  Each feature gets its own server, project and package
+ * name, and the tasks configured by {@link #publisherExtension} get a client of that server from
+ * {@link AndroidPublisherHelper#init(AndroidPublisherExtension)}, so they go through the same path as a build.
+ */
+@Timeout(60)
+abstract class FakePlayServerSpec extends Specification {
+	FakePlayServer server = new FakePlayServer()
+	Project project = ProjectBuilder.builder().build()
+	AndroidPublisherExtension publisherExtension
+	String packageName = 'com.example.spec' + System.nanoTime()
+
+	private HttpTransport clientTransport
+
+	def setup() {
+		server.start()
+		publisherExtension = project.extensions.create('androidPublisher', AndroidPublisherExtension,
+				project.container(PublicationTarget))
+		publisherExtension.applicationName = getClass().simpleName
+		publisherExtension.packageName = packageName
+		publisherExtension.serviceAccountEmail = 'publisher@example.com'
+		publisherExtension.serviceAccountKeyFile = project.file('key.p12')
+		publisherExtension.serviceAccountKeyFile.text = packageName
+		useTransport(AndroidPublisherHelper.TRANSPORT_APACHE)
+	}
+
+	def cleanup() {
+		// Each feature is a build of its own, drop the shared edits it left open
+		SharedEdit.finishBuild()
+		AndroidPublisherHelper.CLIENTS.clear()
+		server.stop()
+		clientTransport.shutdown()
+	}
+
+	/**
+	 * Makes the tasks send their requests to the server with a transport of the given type.
+	 */
+	protected void useTransport(String type) {
+		publisherExtension.transport = type
+		clientTransport?.shutdown()
+		// Switch the daemon-wide transport first, switching it later would drop the client of the server
+		AndroidPublisherHelper.newTrustedTransport(type, publisherExtension.connectionPoolSize)
+		clientTransport = AndroidPublisherHelper.newTransport(type, publisherExtension.connectionPoolSize)
+		// The client shares the retry policy that init configures from the extension, like the clients of a build
+		AndroidPublisherHelper.CLIENTS.put(clientKey(),
+				server.newClient(clientTransport, AndroidPublisherHelper.RETRY_POLICY))
+	}
+
+	private String clientKey() {
+		return publisherExtension.applicationName + ':' + publisherExtension.serviceAccountEmail + ':' +
+				Digests.sha1Hex(publisherExtension.serviceAccountKeyFile) + ':' + publisherExtension.persistCredentials
+	}
+}
@@ -0,0 +1,54 @@
+package com.savillians.gradle.androidpublisher
+
+import com.google.api.services.androidpublisher.model.Track
+import org.gradle.api.InvalidUserDataException
+
+class ListApksTaskSpec extends FakePlayServerSpec {
+	ListApksTask task
+
+	def setup() {
+		task = project.tasks.create('androidListApks', ListApksTask)
+
+		(1..2).each { server.addApk(packageName, it, "sha$it") }
+		server.setTrack(packageName, new Track().setTrack('alpha').setVersionCodes([2]))
+	}
+
+	def cleanup() {
+		ApkInventory.load(packageName).file.delete()
+	}
+
+	def "refreshes the inventory in an edit that is deleted afterwards"() {
+		when:
+		task.listApks()
+
+		then:
+		ApkInventory.load(packageName).apks*.versionCode == [1, 2]
+		ApkInventory.load(packageName).apks.find { it.versionCode == 2 }.tracks == ['alpha']
+		server.getRequestCount('edits.delete') == 1
+		server.getOpenEditCount(packageName) == 0
+	}
+
+	def "deletes the edit when the refresh fails"() {
+		given:
+		server.failNext('tracks.list', 400, 1)
+
+		when:
+		task.listApks()
+
+		then:
+		thrown(InvalidUserDataException)
+		server.getRequestCount('edits.delete') == 1
+		server.getOpenEditCount(packageName) == 0
+	}
+
+	def "ignores inventory entries without a version code"() {
+		given:
+		def file = ApkInventory.load(packageName).file
+		file.parentFile.mkdirs()
+		file.text = '{"apks": [{"versionCode": 2, "sha1": "sha2"}, {"sha1": "sha3"}, {"versionCode": 1, "sha1": "sha1"}]}'
+
+		expect:
+		ApkInventory.load(packageName).apks*.versionCode == [1, 2]
+		ApkInventory.load(packageName).findVersionCode('sha3') == null
+	}
+}
@@ -0,0 +1,91 @@
+package com.savillians.gradle.androidpublisher
+
+import spock.lang.Specification
+
+import java.nio.charset.Charset
+
+class ListResponsesSpec extends Specification {
+	private static final Charset UTF_8 = Charset.forName("UTF-8")
+
+	def "keeps the version code and hash of every APK and skips the other fields"() {
+		when:
+		def apks = ListResponses.parseApks(json('''{
+			"kind": "androidpublisher#apksListResponse",
+			"apks": [
+				{"versionCode": 1, "binary": {"sha1": "aa", "sha256": "ff"}, "extra": {"nested": [1, {"a": 2}]}},
+				{"binary": {"sha1": "bb"}, "versionCode": 2}
+			],
+			"trailing": [{"versionCode": 3}]
+		}'''), UTF_8)
+
+		then:
+		apks*.versionCode == [1, 2]
+		apks*.sha1 == ['aa', 'bb']
+	}
+
+	def "drops APKs without a version code and ignores values of the wrong type"() {
+		when:
+		def apks = ListResponses.parseApks(json('''{"apks": [
+			{"versionCode": null, "binary": {"sha1": "aa"}},
+			{"versionCode": {"value": 2}, "binary": {"sha1": "bb"}},
+			{"versionCode": "3", "binary": null},
+			{"versionCode": 4, "binary": {"sha1": 12345}},
+			{"versionCode": 5, "binary": {"sha1": ["cc"]}}
+		]}'''), UTF_8)
+
+		then:
+		apks*.versionCode == [3, 4, 5]
+		apks*.sha1 == [null, null, null]
+	}
+
+	def "reads a response without APKs"() {
+		expect:
+		ListResponses.parseApks(json(body), UTF_8).isEmpty()
+
+		where:
+		body << ['{}', '{"apks": null}', '{"apks": []}', '{"apks": {"versionCode": 1}}']
+	}
+
+	def "rejects a response that is not a JSON object"() {
+		when:
+		ListResponses.parseApks(json('[{"versionCode": 1}]'), UTF_8)
+
+		then:
+		thrown(IOException)
+	}
+
+	def "keeps the version codes and user fraction of every track"() {
+		when:
+		def tracks = ListResponses.parseTracks(json('''{
+			"kind": "androidpublisher#tracksListResponse",
+			"tracks": [
+				{"track": "alpha", "versionCodes": [3, "4"], "unknown": {"a": [1]}},
+				{"track": "rollout", "versionCodes": [2], "userFraction": 0.1},
+				{"track": "production", "versionCodes": [1], "userFraction": "0.5"}
+			]
+		}'''), UTF_8)
+
+		then:
+		tracks*.track == ['alpha', 'rollout', 'production']
+		tracks*.versionCodes == [[3, 4], [2], [1]]
+		tracks*.userFraction == [null, 0.1d, 0.5d]
+	}
+
+	def "ignores null and wrongly typed track fields"() {
+		when:
+		def tracks = ListResponses.parseTracks(json('''{"tracks": [
+			{"track": null, "versionCodes": null, "userFraction": null},
+			{"track": ["beta"], "versionCodes": [1, null, {"a": 2}, [3], 4], "userFraction": {"value": 0.1}},
+			{"track": "alpha", "versionCodes": "5", "userFraction": true}
+		]}'''), UTF_8)
+
+		then:
+		tracks*.track == [null, null, 'alpha']
+		tracks*.versionCodes == [null, [1, 4], null]
+		tracks*.userFraction == [null, null, null]
+	}
+
+	private static InputStream json(String json) {
+		new ByteArrayInputStream(json.getBytes(UTF_8))
+	}
+}
@@ -0,0 +1,110 @@
+package com.savillians.gradle.androidpublisher
+
+import com.google.api.services.androidpublisher.model.Apk
+import com.google.api.services.androidpublisher.model.ApkBinary
+import spock.lang.Specification
+
+class PublishJournalSpec extends Specification {
+	private static final String PUBLICATION = ':app:androidPublish'
+
+	String packageName = 'com.example.journal' + System.nanoTime()
+
+	def cleanup() {
+		new File(AndroidPublisherHelper.getDataStoreDir(), "journals/$packageName").deleteDir()
+	}
+
+	def "saves the completed steps and loads them for the same publication and track"() {
+		given:
+		def journal = PublishJournal.start(packageName, PUBLICATION, 'alpha', 'edit1')
+		journal.apkUploaded(new Apk().setVersionCode(3).setBinary(new ApkBinary().setSha1('ABCDEF')))
+		journal.trackUpdated([3])
+
+		when:
+		def loaded = PublishJournal.load(packageName, PUBLICATION, 'alpha')
+
+		then:
+		loaded.editId == 'edit1'
+		loaded.getUploadedApk('abcdef').versionCode == 3
+		loaded.getUploadedApk('012345') == null
+		loaded.isTrackUpdated([3])
+		!loaded.isTrackUpdated([3, 4])
+	}
+
+	def "has no journal for another track or publication"() {
+		given:
+		PublishJournal.start(packageName, PUBLICATION, 'alpha', 'edit1')
+
+		expect:
+		PublishJournal.load(packageName, PUBLICATION, 'beta') == null
+		PublishJournal.load(packageName, ':app:androidPublishRelease', 'alpha') == null
+		PublishJournal.load(packageName + '.other', PUBLICATION, 'alpha') == null
+	}
+
+	def "replaces the journal of an earlier publication when a new edit starts"() {
+		given:
+		def earlier = PublishJournal.start(packageName, PUBLICATION, 'alpha', 'edit1')
+		earlier.apkUploaded(new Apk().setVersionCode(3).setBinary(new ApkBinary().setSha1('aa')))
+
+		when:
+		PublishJournal.start(packageName, PUBLICATION, 'alpha', 'edit2')
+		def loaded = PublishJournal.load(packageName, PUBLICATION, 'alpha')
+
+		then:
+		loaded.editId == 'edit2'
+		loaded.getUploadedApk('aa') == null
+	}
+
+	def "records expansion files by hash and the APKs referencing them"() {
+		given:
+		def journal = PublishJournal.start(packageName, PUBLICATION, 'alpha', 'edit1')
+		journal.expansionFileUploaded('main', 'AA', 3)
+		journal.expansionFileReferenced('main', 4)
+
+		when:
+		def loaded = PublishJournal.load(packageName, PUBLICATION, 'alpha')
+
+		then:
+		loaded.getExpansionFileVersionCode('main', 'aa') == 3
+		loaded.getExpansionFileVersionCode('main', 'bb') == null
+		loaded.getExpansionFileVersionCode('patch', 'aa') == null
+		loaded.isExpansionFileReferenced('main', 4)
+		!loaded.isExpansionFileReferenced('main', 5)
+		!loaded.isExpansionFileReferenced('patch', 4)
+	}
+
+	def "forgets the references of an expansion file that is uploaded again"() {
+		given:
+		def journal = PublishJournal.start(packageName, PUBLICATION, 'alpha', 'edit1')
+		journal.expansionFileUploaded('main', 'aa', 3)
+		journal.expansionFileReferenced('main', 4)
+
+		when:
+		journal.expansionFileUploaded('main', 'bb', 5)
+
+		then:
+		journal.getExpansionFileVersionCode('main', 'aa') == null
+		journal.getExpansionFileVersionCode('main', 'bb') == 5
+		!journal.isExpansionFileReferenced('main', 4)
+	}
+
+	def "deletes the journal"() {
+		given:
+		def journal = PublishJournal.start(packageName, PUBLICATION, 'alpha', 'edit1')
+
+		when:
+		journal.delete()
+
+		then:
+		PublishJournal.load(packageName, PUBLICATION, 'alpha') == null
+	}
+
+	def "ignores an unreadable journal"() {
+		given:
+		PublishJournal.start(packageName, PUBLICATION, 'alpha', 'edit1')
+		def file = new File(AndroidPublisherHelper.getDataStoreDir(), "journals/$packageName").listFiles()[0]
+		file.text = '{"track": "alpha", "editId": '
+
+		expect:
+		PublishJournal.load(packageName, PUBLICATION, 'alpha') == null
+	}
+}
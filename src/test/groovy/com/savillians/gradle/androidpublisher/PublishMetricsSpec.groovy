@@ -0,0 +1,41 @@
+package com.savillians.gradle.androidpublisher
+
+import spock.lang.Specification
+
+class PublishMetricsSpec extends Specification {
+	def metrics = new PublishMetrics('spec')
+
+	def "counts retries against the outer phase again once a nested phase stopped"() {
+		given:
+		def outer = metrics.start('upload')
+		def nested = metrics.start('warm-up')
+
+		when:
+		PublishMetrics.recordRetry()
+		nested.stop()
+		PublishMetrics.recordRetry()
+		outer.stop()
+		PublishMetrics.recordRetry()
+
+		then:
+		nested.retries == 1
+		outer.retries == 1
+	}
+
+	def "skips a phase that was stopped before the nested one"() {
+		given:
+		def outer = metrics.start('upload')
+		def middle = metrics.start('hash')
+		def nested = metrics.start('warm-up')
+
+		when:
+		middle.stop()
+		nested.stop()
+		PublishMetrics.recordRetry()
+		outer.stop()
+
+		then:
+		middle.retries == 0
+		outer.retries == 1
+	}
+}
@@ -0,0 +1,105 @@
+package com.savillians.gradle.androidpublisher
+
+import org.gradle.api.logging.Logging
+
+class SharedEditSpec extends FakePlayServerSpec {
+	List<File> files = []
+
+	def setup() {
+		// The APKs are random bytes
+		publisherExtension.verifyApks = false
+		publisherExtension.resumableUpload = false
+		publisherExtension.sharedEdit = true
+	}
+
+	def cleanup() {
+		files*.delete()
+	}
+
+	def "adds the publications of the build to one edit and commits it once"() {
+		when:
+		publish(packageName, 'alpha')
+		publish(packageName, 'beta')
+
+		then:
+		server.getRequestCount('edits.insert') == 1
+		server.getTrack(packageName, 'alpha').versionCodes.isEmpty()
+		server.getOpenEditCount(packageName) == 1
+
+		when:
+		SharedEdit.commitAll(new PublishMetrics('spec'))
+
+		then:
+		server.getTrack(packageName, 'alpha').versionCodes == [1]
+		server.getTrack(packageName, 'beta').versionCodes == [2]
+		server.getRequestCount('edits.commit') == 1
+		!SharedEdit.hasOpenEdits()
+	}
+
+	def "deletes the edit and the files of its publications when the build failed"() {
+		given:
+		publish(packageName, 'alpha')
+		def receipt = file()
+		SharedEdit.deleteOnRollback(packageName, receipt)
+
+		when:
+		SharedEdit.rollBackAll()
+
+		then:
+		!receipt.exists()
+		server.getRequestCount('edits.delete') == 1
+		server.getOpenEditCount(packageName) == 0
+		server.getTrack(packageName, 'alpha').versionCodes.isEmpty()
+	}
+
+	def "commits the other packages when the commit of one fails"() {
+		given:
+		def otherPackageName = packageName + '.other'
+		publish(packageName, 'alpha')
+		publish(otherPackageName, 'alpha')
+		server.failNext('edits.commit', 400, 1)
+
+		when:
+		SharedEdit.commitAll(new PublishMetrics('spec'))
+
+		then:
+		IOException e = thrown()
+		e.message.contains(packageName + ':')
+		!e.message.contains(otherPackageName)
+		server.getTrack(packageName, 'alpha').versionCodes.isEmpty()
+		server.getTrack(otherPackageName, 'alpha').versionCodes == [1]
+	}
+
+	def "does not open an edit once the edits of the build were committed"() {
+		given:
+		publish(packageName, 'alpha')
+		SharedEdit.commitAll(new PublishMetrics('spec'))
+
+		when:
+		publish(packageName, 'beta')
+
+		then:
+		thrown(IllegalStateException)
+
+		when:
+		SharedEdit.finishBuild()
+		publish(packageName, 'beta')
+
+		then:
+		SharedEdit.hasOpenEdits()
+	}
+
+	private PublishReceipt publish(String packageName, String track) {
+		return new ApkPublisher(Logging.getLogger(SharedEditSpec), publisherExtension, packageName,
+				":$track:androidPublish", track, new PublishMetrics('spec')).publish([file()])
+	}
+
+	private File file() {
+		def file = File.createTempFile('shared', '.apk')
+		def bytes = new byte[1000]
+		new Random().nextBytes(bytes)
+		file.bytes = bytes
+		files << file
+		return file
+	}
+}
@@ -0,0 +1,81 @@
+package com.savillians.gradle.androidpublisher
+
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import java.util.concurrent.TimeUnit
+
+@Timeout(10)
+class TokenBucketSpec extends Specification {
+	def bucket = new TokenBucket()
+
+	def "does not limit requests while the rate is not set"() {
+		when:
+		long elapsed = time { 1000.times { bucket.acquire() } }
+
+		then:
+		bucket.rate == 0
+		elapsed < TimeUnit.MILLISECONDS.toNanos(500)
+	}
+
+	def "lets a burst of one second worth of permits through and then paces the requests"() {
+		given:
+		bucket.rate = 20
+		// The bucket starts empty and fills up within a second
+		Thread.sleep(1100)
+
+		when:
+		long burst = time { 20.times { bucket.acquire() } }
+		long paced = time { 10.times { bucket.acquire() } }
+
+		then:
+		burst < TimeUnit.MILLISECONDS.toNanos(200)
+		paced >= TimeUnit.MILLISECONDS.toNanos(400)
+	}
+
+	def "keeps at most one second worth of permits when the rate is lowered"() {
+		given:
+		bucket.rate = 2
+		Thread.sleep(1100)
+		bucket.rate = 0.5
+
+		when:
+		long first = time { bucket.acquire() }
+		long second = time { bucket.acquire() }
+
+		then:
+		first < TimeUnit.MILLISECONDS.toNanos(200)
+		second >= TimeUnit.MILLISECONDS.toNanos(1500)
+	}
+
+	def "stops waiting when the thread is interrupted"() {
+		given:
+		bucket.rate = 1
+		Thread.currentThread().interrupt()
+
+		when:
+		bucket.acquire()
+
+		then:
+		thrown(InterruptedIOException)
+		Thread.interrupted()
+	}
+
+	def "disables the limiter when the rate is set to zero"() {
+		given:
+		bucket.rate = 1
+		bucket.rate = 0
+
+		when:
+		long elapsed = time { 100.times { bucket.acquire() } }
+
+		then:
+		elapsed < TimeUnit.MILLISECONDS.toNanos(500)
+	}
+
+	private static long time(Closure closure) {
+		long start = System.nanoTime()
+		closure.call()
+		System.nanoTime() - start
+	}
+}
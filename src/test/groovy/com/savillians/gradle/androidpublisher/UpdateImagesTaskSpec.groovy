@@ -0,0 +1,52 @@
+package com.savillians.gradle.androidpublisher
+
+import org.gradle.api.InvalidUserDataException
+
+class UpdateImagesTaskSpec extends FakePlayServerSpec {
+	UpdateImagesTask task
+
+	def setup() {
+		task = project.tasks.create('androidUpdateImages', UpdateImagesTask)
+		publisherExtension.imagesDir = project.file('images')
+		def iconDir = new File(publisherExtension.imagesDir, 'en-US/icon')
+		iconDir.mkdirs()
+		new File(iconDir, 'icon.png').bytes = [1, 2, 3] as byte[]
+	}
+
+	def "commits the images that changed"() {
+		when:
+		task.updateImages()
+
+		then:
+		server.getRequestCount('images.upload') == 1
+		server.getRequestCount('edits.commit') == 1
+		server.getRequestCount('edits.delete') == 0
+	}
+
+	def "deletes the edit when all images are up to date"() {
+		given:
+		task.updateImages()
+
+		when:
+		task.updateImages()
+
+		then:
+		server.getRequestCount('images.upload') == 1
+		server.getRequestCount('edits.commit') == 1
+		server.getRequestCount('edits.delete') == 1
+		server.getOpenEditCount(packageName) == 0
+	}
+
+	def "deletes the edit when an upload fails"() {
+		given:
+		server.failNext('images.upload', 400, 1)
+
+		when:
+		task.updateImages()
+
+		then:
+		thrown(InvalidUserDataException)
+		server.getRequestCount('edits.delete') == 1
+		server.getOpenEditCount(packageName) == 0
+	}
+}
@@ -0,0 +1,70 @@
+package com.savillians.gradle.androidpublisher
+
+import com.google.api.services.androidpublisher.model.Listing
+import org.gradle.api.InvalidUserDataException
+
+class UpdateListingTaskSpec extends FakePlayServerSpec {
+	UpdateListingTask task
+
+	def setup() {
+		task = project.tasks.create('androidUpdateListing', UpdateListingTask)
+		publisherExtension.listingsDir = project.file('listings')
+		def localeDir = new File(publisherExtension.listingsDir, 'en-US')
+		localeDir.mkdirs()
+		new File(localeDir, 'title.txt').text = 'Title'
+		new File(localeDir, 'short-description.txt').text = 'Short'
+		new File(localeDir, 'full-description.txt').text = 'Full'
+	}
+
+	def "commits the listings that changed"() {
+		when:
+		task.updateListing()
+
+		then:
+		server.getListing(packageName, 'en-US').title == 'Title'
+		server.getRequestCount('edits.commit') == 1
+		server.getRequestCount('edits.delete') == 0
+	}
+
+	def "deletes the edit when all listings are up to date"() {
+		given:
+		server.setListing(packageName, new Listing().setLanguage('en-US').setTitle('Title')
+				.setShortDescription('Short').setFullDescription('Full'))
+
+		when:
+		task.updateListing()
+
+		then:
+		server.getRequestCount('edits.commit') == 0
+		server.getRequestCount('edits.delete') == 1
+		server.getOpenEditCount(packageName) == 0
+	}
+
+	def "deletes the edit when a listing update fails"() {
+		given:
+		server.failNext('listings.update', 400, 1)
+
+		when:
+		task.updateListing()
+
+		then:
+		thrown(InvalidUserDataException)
+		server.getListing(packageName, 'en-US') == null
+		server.getRequestCount('edits.delete') == 1
+		server.getOpenEditCount(packageName) == 0
+	}
+
+	def "leaves the shared edit open for the other tasks"() {
+		given:
+		publisherExtension.sharedEdit = true
+		server.failNext('listings.update', 400, 1)
+
+		when:
+		task.updateListing()
+
+		then:
+		thrown(InvalidUserDataException)
+		server.getRequestCount('edits.delete') == 0
+		SharedEdit.hasOpenEdits()
+	}
+}
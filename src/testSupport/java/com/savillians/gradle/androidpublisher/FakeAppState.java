@@ -0,0 +1,125 @@
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.services.androidpublisher.model.Apk;
+import com.google.api.services.androidpublisher.model.ApkListing;
+import com.google.api.services.androidpublisher.model.ExpansionFile;
+import com.google.api.services.androidpublisher.model.Image;
+import com.google.api.services.androidpublisher.model.Listing;
+import com.google.api.services.androidpublisher.model.Track;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * State of one package in {@link FakePlayServer}: the committed state, or the working copy of an edit.
+ */
+class FakeAppState {
+	static final String[] STANDARD_TRACKS = {"alpha", "beta", "production", "rollout"};
+
+	final Map<Integer, Apk> apks = new TreeMap<Integer, Apk>();
+	final Map<String, Track> tracks = new TreeMap<String, Track>();
+	final Map<String, Listing> listings = new TreeMap<String, Listing>();
+	/** Release notes keyed by version code and language, such as {@code 42/en-US}. */
+	final Map<String, ApkListing> apkListings = new TreeMap<String, ApkListing>();
+	/** Expansion files keyed by version code and type, such as {@code 42/main}. */
+	final Map<String, ExpansionFile> expansionFiles = new TreeMap<String, ExpansionFile>();
+	/** Store images in upload order keyed by language and image type, such as {@code en-US/phoneScreenshots}. */
+	final Map<String, List<Image>> images = new TreeMap<String, List<Image>>();
+
+	FakeAppState() {
+		for (String track : STANDARD_TRACKS) {
+			tracks.put(track, new Track().setTrack(track).setVersionCodes(new ArrayList<Integer>()));
+		}
+	}
+
+	FakeAppState copy() {
+		FakeAppState copy = new FakeAppState();
+		for (Map.Entry<Integer, Apk> apk : apks.entrySet()) {
+			copy.apks.put(apk.getKey(), apk.getValue().clone());
+		}
+		for (Map.Entry<String, Track> track : tracks.entrySet()) {
+			copy.tracks.put(track.getKey(), track.getValue().clone());
+		}
+		for (Map.Entry<String, Listing> listing : listings.entrySet()) {
+			copy.listings.put(listing.getKey(), listing.getValue().clone());
+		}
+		for (Map.Entry<String, ApkListing> apkListing : apkListings.entrySet()) {
+			copy.apkListings.put(apkListing.getKey(), apkListing.getValue().clone());
+		}
+		for (Map.Entry<String, ExpansionFile> expansionFile : expansionFiles.entrySet()) {
+			copy.expansionFiles.put(expansionFile.getKey(), expansionFile.getValue().clone());
+		}
+		for (Map.Entry<String, List<Image>> typeImages : images.entrySet()) {
+			List<Image> imagesCopy = new ArrayList<Image>();
+			for (Image image : typeImages.getValue()) {
+				imagesCopy.add(image.clone());
+			}
+			copy.images.put(typeImages.getKey(), imagesCopy);
+		}
+		return copy;
+	}
+
+	/**
+	 * Version codes are assigned in upload order, as if every build incremented it.
+	 */
+	int nextVersionCode() {
+		return apks.isEmpty() ? 1 : Collections.max(apks.keySet()) + 1;
+	}
+
+	Apk findApk(String sha1) {
+		for (Apk apk : apks.values()) {
+			if (apk.getBinary() != null && sha1.equals(apk.getBinary().getSha1())) {
+				return apk;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Checks the rules Google Play enforces when an edit is committed.
+	 *
+	 * @return the reason the edit cannot be committed, or {@code null} if it can
+	 */
+	String validate() {
+		Map<Integer, String> assignedTracks = new TreeMap<Integer, String>();
+		for (Track track : tracks.values()) {
+			if (track.getVersionCodes() == null) {
+				continue;
+			}
+			for (Integer versionCode : track.getVersionCodes()) {
+				if (!apks.containsKey(versionCode)) {
+					return String.format("APK with version code %d of track %s does not exist",
+							versionCode, track.getTrack());
+				}
+				String otherTrack = assignedTracks.put(versionCode, track.getTrack());
+				if (otherTrack != null) {
+					return String.format("Version code %d cannot be assigned to both the %s and the %s track",
+							versionCode, otherTrack, track.getTrack());
+				}
+			}
+		}
+		for (Map.Entry<String, ExpansionFile> expansionFile : expansionFiles.entrySet()) {
+			Integer referencesVersion = expansionFile.getValue().getReferencesVersion();
+			String type = expansionFile.getKey().substring(expansionFile.getKey().indexOf('/') + 1);
+			if (referencesVersion != null) {
+				ExpansionFile referenced = expansionFiles.get(referencesVersion + "/" + type);
+				if (referenced == null || referenced.getReferencesVersion() != null) {
+					return String.format("Expansion file %s references version code %d, which has no %s file",
+							expansionFile.getKey(), referencesVersion, type);
+				}
+			}
+		}
+		Track rollout = tracks.get("rollout");
+		if (rollout != null && rollout.getVersionCodes() != null && !rollout.getVersionCodes().isEmpty()) {
+			Double userFraction = rollout.getUserFraction();
+			if (userFraction == null || userFraction <= 0 || userFraction >= 1) {
+				return String.format("The rollout track requires a user fraction between 0 and 1, not %s",
+						userFraction);
+			}
+		}
+		return null;
+	}
+}
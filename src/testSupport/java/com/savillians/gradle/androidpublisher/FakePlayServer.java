@@ -0,0 +1,1254 @@
+package com.savillians.gradle.androidpublisher;
+
+import com.google.api.client.auth.oauth2.BearerToken;
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.Apk;
+import com.google.api.services.androidpublisher.model.ApkBinary;
+import com.google.api.services.androidpublisher.model.ApkListing;
+import com.google.api.services.androidpublisher.model.ApkListingsListResponse;
+import com.google.api.services.androidpublisher.model.ApksListResponse;
+import com.google.api.services.androidpublisher.model.AppEdit;
+import com.google.api.services.androidpublisher.model.ExpansionFile;
+import com.google.api.services.androidpublisher.model.ExpansionFilesUploadResponse;
+import com.google.api.services.androidpublisher.model.Image;
+import com.google.api.services.androidpublisher.model.ImagesDeleteAllResponse;
+import com.google.api.services.androidpublisher.model.ImagesListResponse;
+import com.google.api.services.androidpublisher.model.ImagesUploadResponse;
+import com.google.api.services.androidpublisher.model.Listing;
+import com.google.api.services.androidpublisher.model.ListingsListResponse;
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.api.services.androidpublisher.model.TracksListResponse;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Embedded fake of the Google Play Developer API for integration and load testing without network access.
+ * <p>
+ * Every package has a committed state of APKs, expansion files, tracks, store listings, images and release notes.
+ * An edit works on a copy of the committed state, which replaces the committed state when the edit is committed.  As on
+ * Google Play, committing an edit deletes the other open edits of the package, edits expire, uploads are hashed and
+ * get the next version code, the same binary cannot be uploaded twice and a commit is rejected when a track refers to
+ * an unknown APK or two tracks share a version code.  APKs and expansion files are uploaded directly or as resumable
+ * uploads.
+ * </p>
+ * <p>
+ * A latency can be added to every request and failures can be injected per operation, using the names of the API
+ * methods such as {@code apks.upload} or {@code edits.commit}, {@code upload.chunk} for the chunks of resumable
+ * uploads and {@code batch} for batch requests, whose parts also count as requests of their own.  A failure either
+ * responds with an HTTP status or drops the connection, for a number of times or at random.
+ * </p>
+ */
+class FakePlayServer {
+	/** Status of an injected failure that closes the connection without a response. */
+	static final int DROP_CONNECTION = -1;
+
+	/** Operation name matching all operations when injecting failures. */
+	static final String ANY_OPERATION = "*";
+
+	private static final String SERVICE_PATH = "/androidpublisher/v2/applications/";
+	private static final String UPLOAD_PATH = "/upload" + SERVICE_PATH;
+	private static final String SESSION_PATH = "/resumable/";
+	private static final String BATCH_PATH = "/batch";
+	private static final String BATCH_BOUNDARY = "fake_batch_boundary";
+
+	/** Image types holding a single image, which an upload replaces; the other types hold up to 8 screenshots. */
+	private static final Set<String> SINGLE_IMAGE_TYPES =
+			new HashSet<String>(Arrays.asList("featureGraphic", "icon", "promoGraphic", "tvBanner"));
+	private static final int MAX_SCREENSHOTS = 8;
+
+	private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+	private static final int RESUME_INCOMPLETE = 308;
+
+	private final JsonFactory jsonFactory = AndroidPublisherHelper.getJsonFactory();
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	/** Committed state, open edits and the reasons edits were closed, guarded by this. */
+	private final Map<String, FakeAppState> apps = new HashMap<String, FakeAppState>();
+	private final Map<String, Edit> edits = new HashMap<String, Edit>();
+	private final Map<String, String> closedEdits = new HashMap<String, String>();
+	private int nextEditId = 1;
+
+	private final ConcurrentMap<String, UploadSession> sessions = new ConcurrentHashMap<String, UploadSession>();
+	private final AtomicInteger nextSessionId = new AtomicInteger(1);
+	private final AtomicInteger nextImageId = new AtomicInteger(1);
+	private final ConcurrentMap<String, AtomicInteger> requestCounts = new ConcurrentHashMap<String, AtomicInteger>();
+
+	/** Injected failures by operation, guarded by itself. */
+	private final Map<String, List<Failure>> failures = new HashMap<String, List<Failure>>();
+	private final Random random = new Random();
+
+	private volatile long latencyMillis;
+	private volatile long editTimeoutMillis = TimeUnit.HOURS.toMillis(1);
+
+	FakePlayServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					respond(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.setExecutor(executor);
+	}
+
+	void start() {
+		server.start();
+	}
+
+	void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Root URL to give the API client instead of the Google APIs host.
+	 */
+	String getRootUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+	}
+
+	/**
+	 * Creates an API client for this server, authorized with a token that does not expire during a run.
+	 */
+	AndroidPublisher newClient(HttpTransport transport, RetryPolicy retryPolicy) {
+		Credential credential = new Credential(BearerToken.authorizationHeaderAccessMethod())
+				.setAccessToken("fake")
+				.setExpiresInSeconds(24L * 60 * 60);
+		return AndroidPublisherHelper.newClient("fake", transport, credential, retryPolicy, getRootUrl());
+	}
+
+	/**
+	 * Delays every request, including each chunk of a resumable upload.
+	 */
+	void setLatency(long latency, TimeUnit unit) {
+		latencyMillis = unit.toMillis(latency);
+	}
+
+	void setEditTimeout(long timeout, TimeUnit unit) {
+		editTimeoutMillis = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Fails the next requests of an operation with the given status, or {@link #DROP_CONNECTION}.
+	 */
+	void failNext(String operation, int statusCode, int times) {
+		addFailure(operation, new Failure(statusCode, times, 0));
+	}
+
+	/**
+	 * Fails requests of an operation at random with the given probability.
+	 */
+	void failRandomly(String operation, int statusCode, double probability) {
+		addFailure(operation, new Failure(statusCode, 0, probability));
+	}
+
+	void clearFailures() {
+		synchronized (failures) {
+			failures.clear();
+		}
+	}
+
+	/**
+	 * Number of requests received for an operation, including failed and retried ones.
+	 */
+	int getRequestCount(String operation) {
+		AtomicInteger count = requestCounts.get(operation);
+		return count != null ? count.get() : 0;
+	}
+
+	synchronized void addApk(String packageName, int versionCode, String sha1) {
+		app(packageName).apks.put(versionCode,
+				new Apk().setVersionCode(versionCode).setBinary(new ApkBinary().setSha1(sha1)));
+	}
+
+	synchronized void setTrack(String packageName, Track track) {
+		app(packageName).tracks.put(track.getTrack(), track.clone());
+	}
+
+	synchronized void setListing(String packageName, Listing listing) {
+		app(packageName).listings.put(listing.getLanguage(), listing.clone());
+	}
+
+	synchronized List<Apk> getApks(String packageName) {
+		List<Apk> apks = new ArrayList<Apk>();
+		for (Apk apk : app(packageName).apks.values()) {
+			apks.add(apk.clone());
+		}
+		return apks;
+	}
+
+	synchronized Track getTrack(String packageName, String track) {
+		Track committed = app(packageName).tracks.get(track);
+		return committed != null ? committed.clone() : null;
+	}
+
+	synchronized Listing getListing(String packageName, String language) {
+		Listing committed = app(packageName).listings.get(language);
+		return committed != null ? committed.clone() : null;
+	}
+
+	synchronized ApkListing getApkListing(String packageName, int versionCode, String language) {
+		ApkListing committed = app(packageName).apkListings.get(versionCode + "/" + language);
+		return committed != null ? committed.clone() : null;
+	}
+
+	synchronized ExpansionFile getExpansionFile(String packageName, int versionCode, String type) {
+		ExpansionFile committed = app(packageName).expansionFiles.get(versionCode + "/" + type);
+		return committed != null ? committed.clone() : null;
+	}
+
+	synchronized void addImage(String packageName, String language, String imageType, String sha1) {
+		String key = language + "/" + imageType;
+		List<Image> images = app(packageName).images.get(key);
+		if (images == null) {
+			images = new ArrayList<Image>();
+			app(packageName).images.put(key, images);
+		}
+		String id = Integer.toString(nextImageId.getAndIncrement());
+		images.add(new Image().setId(id).setSha1(sha1).setUrl(getRootUrl() + "images/" + id));
+	}
+
+	synchronized List<Image> getImages(String packageName, String language, String imageType) {
+		List<Image> images = new ArrayList<Image>();
+		List<Image> committed = app(packageName).images.get(language + "/" + imageType);
+		if (committed != null) {
+			for (Image image : committed) {
+				images.add(image.clone());
+			}
+		}
+		return images;
+	}
+
+	synchronized int getOpenEditCount(String packageName) {
+		int count = 0;
+		for (Edit edit : edits.values()) {
+			if (edit.packageName.equals(packageName) && !edit.isExpired()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private void respond(HttpExchange exchange) throws IOException {
+		try {
+			dispatch(exchange);
+		} catch (ApiError e) {
+			// Closing the exchange without a response drops the connection
+			if (e.statusCode != DROP_CONNECTION) {
+				sendError(exchange, e);
+			}
+		} catch (RuntimeException e) {
+			sendError(exchange, new ApiError(500, "internalError", e.toString()));
+		}
+	}
+
+	private void dispatch(HttpExchange exchange) throws IOException, ApiError {
+		String method = exchange.getRequestHeaders().getFirst("X-HTTP-Method-Override");
+		if (method == null) {
+			method = exchange.getRequestMethod();
+		}
+		String path = exchange.getRequestURI().getPath();
+		if (BATCH_PATH.equals(path) && "POST".equals(method)) {
+			begin("batch");
+			executeBatch(exchange);
+			return;
+		}
+		if (path.startsWith(SESSION_PATH)) {
+			begin("upload.chunk");
+			uploadChunk(exchange, path.substring(SESSION_PATH.length()));
+			return;
+		}
+		boolean upload = path.startsWith(UPLOAD_PATH);
+		if (!upload && !path.startsWith(SERVICE_PATH)) {
+			throw notFound(path);
+		}
+		// {packageName}/edits[/{editId}[:action][/{collection}[/...]]]
+		String[] segments = path.substring(upload ? UPLOAD_PATH.length() : SERVICE_PATH.length()).split("/");
+		if (segments.length < 2 || !"edits".equals(segments[1])) {
+			throw notFound(path);
+		}
+		String packageName = segments[0];
+		if (upload) {
+			if (segments.length == 4 && "POST".equals(method) && "apks".equals(segments[3])) {
+				begin("apks.upload");
+				startUpload(exchange, new UploadSession(packageName, segments[2]));
+				return;
+			}
+			if (segments.length == 6 && "POST".equals(method) && "listings".equals(segments[3])) {
+				begin("images.upload");
+				UploadSession session = new UploadSession(packageName, segments[2]);
+				session.language = segments[4];
+				session.imageType = segments[5];
+				startUpload(exchange, session);
+				return;
+			}
+			if (segments.length == 7 && "POST".equals(method) && "apks".equals(segments[3])
+					&& "expansionFiles".equals(segments[5])) {
+				begin("expansionfiles.upload");
+				UploadSession session = new UploadSession(packageName, segments[2]);
+				session.versionCode = parseVersionCode(segments[4]);
+				session.expansionFileType = segments[6];
+				startUpload(exchange, session);
+				return;
+			}
+			throw notFound(path);
+		}
+
+		if (segments.length == 2) {
+			if ("POST".equals(method)) {
+				begin("edits.insert");
+				sendJson(exchange, insertEdit(packageName));
+				return;
+			}
+			throw notFound(path);
+		}
+		String editId = segments[2];
+		String action = null;
+		if (editId.indexOf(':') >= 0) {
+			action = editId.substring(editId.indexOf(':') + 1);
+			editId = editId.substring(0, editId.indexOf(':'));
+		}
+		if (segments.length == 3) {
+			if ("POST".equals(method) && "commit".equals(action)) {
+				begin("edits.commit");
+				sendJson(exchange, commitEdit(packageName, editId));
+			} else if ("POST".equals(method) && "validate".equals(action)) {
+				begin("edits.validate");
+				sendJson(exchange, validateEdit(packageName, editId));
+			} else if ("GET".equals(method) && action == null) {
+				begin("edits.get");
+				sendJson(exchange, getEdit(packageName, editId));
+			} else if ("DELETE".equals(method) && action == null) {
+				begin("edits.delete");
+				deleteEdit(packageName, editId);
+				sendNoContent(exchange);
+			} else {
+				throw notFound(path);
+			}
+			return;
+		}
+
+		String collection = segments[3];
+		if ("apks".equals(collection)) {
+			if (segments.length == 4 && "GET".equals(method)) {
+				begin("apks.list");
+				sendJson(exchange, listApks(packageName, editId));
+			} else if (segments.length >= 6 && "listings".equals(segments[5])) {
+				dispatchApkListing(exchange, method, packageName, editId, segments);
+			} else if (segments.length == 7 && "expansionFiles".equals(segments[5])) {
+				dispatchExpansionFile(exchange, method, packageName, editId, segments);
+			} else {
+				throw notFound(path);
+			}
+		} else if ("tracks".equals(collection)) {
+			dispatchTrack(exchange, method, packageName, editId, segments);
+		} else if ("listings".equals(collection)) {
+			dispatchListing(exchange, method, packageName, editId, segments);
+		} else {
+			throw notFound(path);
+		}
+	}
+
+	private void dispatchTrack(HttpExchange exchange, String method, String packageName, String editId,
+							   String[] segments) throws IOException, ApiError {
+		if (segments.length == 4 && "GET".equals(method)) {
+			begin("tracks.list");
+			sendJson(exchange, listTracks(packageName, editId));
+		} else if (segments.length == 5 && "GET".equals(method)) {
+			begin("tracks.get");
+			sendJson(exchange, getTrack(packageName, editId, segments[4]));
+		} else if (segments.length == 5 && ("PUT".equals(method) || "PATCH".equals(method))) {
+			boolean patch = "PATCH".equals(method);
+			begin(patch ? "tracks.patch" : "tracks.update");
+			Track track = jsonFactory.fromInputStream(requestBody(exchange), Track.class);
+			sendJson(exchange, updateTrack(packageName, editId, segments[4], track, patch));
+		} else {
+			throw notFound(exchange.getRequestURI().getPath());
+		}
+	}
+
+	private void dispatchListing(HttpExchange exchange, String method, String packageName, String editId,
+								 String[] segments) throws IOException, ApiError {
+		if (segments.length == 4 && "GET".equals(method)) {
+			begin("listings.list");
+			sendJson(exchange, listListings(packageName, editId));
+		} else if (segments.length == 4 && "DELETE".equals(method)) {
+			begin("listings.deleteall");
+			deleteListing(packageName, editId, null);
+			sendNoContent(exchange);
+		} else if (segments.length == 5 && "GET".equals(method)) {
+			begin("listings.get");
+			sendJson(exchange, getListing(packageName, editId, segments[4]));
+		} else if (segments.length == 5 && ("PUT".equals(method) || "PATCH".equals(method))) {
+			boolean patch = "PATCH".equals(method);
+			begin(patch ? "listings.patch" : "listings.update");
+			Listing listing = jsonFactory.fromInputStream(requestBody(exchange), Listing.class);
+			sendJson(exchange, updateListing(packageName, editId, segments[4], listing, patch));
+		} else if (segments.length == 5 && "DELETE".equals(method)) {
+			begin("listings.delete");
+			deleteListing(packageName, editId, segments[4]);
+			sendNoContent(exchange);
+		} else if (segments.length == 6 && "GET".equals(method)) {
+			begin("images.list");
+			sendJson(exchange, listImages(packageName, editId, segments[4], segments[5]));
+		} else if (segments.length == 6 && "DELETE".equals(method)) {
+			begin("images.deleteall");
+			sendJson(exchange, deleteImages(packageName, editId, segments[4], segments[5], null));
+		} else if (segments.length == 7 && "DELETE".equals(method)) {
+			begin("images.delete");
+			deleteImages(packageName, editId, segments[4], segments[5], segments[6]);
+			sendNoContent(exchange);
+		} else {
+			throw notFound(exchange.getRequestURI().getPath());
+		}
+	}
+
+	private void dispatchApkListing(HttpExchange exchange, String method, String packageName, String editId,
+									String[] segments) throws IOException, ApiError {
+		int versionCode = parseVersionCode(segments[4]);
+		if (segments.length == 6 && "GET".equals(method)) {
+			begin("apklistings.list");
+			sendJson(exchange, listApkListings(packageName, editId, versionCode));
+		} else if (segments.length == 7 && "GET".equals(method)) {
+			begin("apklistings.get");
+			sendJson(exchange, getApkListing(packageName, editId, versionCode, segments[6]));
+		} else if (segments.length == 7 && ("PUT".equals(method) || "PATCH".equals(method))) {
+			boolean patch = "PATCH".equals(method);
+			begin(patch ? "apklistings.patch" : "apklistings.update");
+			ApkListing listing = jsonFactory.fromInputStream(requestBody(exchange), ApkListing.class);
+			sendJson(exchange, updateApkListing(packageName, editId, versionCode, segments[6], listing, patch));
+		} else if (segments.length == 7 && "DELETE".equals(method)) {
+			begin("apklistings.delete");
+			deleteApkListing(packageName, editId, versionCode, segments[6]);
+			sendNoContent(exchange);
+		} else {
+			throw notFound(exchange.getRequestURI().getPath());
+		}
+	}
+
+	private void dispatchExpansionFile(HttpExchange exchange, String method, String packageName, String editId,
+									   String[] segments) throws IOException, ApiError {
+		int versionCode = parseVersionCode(segments[4]);
+		if ("GET".equals(method)) {
+			begin("expansionfiles.get");
+			sendJson(exchange, getExpansionFile(packageName, editId, versionCode, segments[6]));
+		} else if ("PUT".equals(method) || "PATCH".equals(method)) {
+			boolean patch = "PATCH".equals(method);
+			begin(patch ? "expansionfiles.patch" : "expansionfiles.update");
+			ExpansionFile expansionFile = jsonFactory.fromInputStream(requestBody(exchange), ExpansionFile.class);
+			sendJson(exchange, updateExpansionFile(packageName, editId, versionCode, segments[6], expansionFile,
+					patch));
+		} else {
+			throw notFound(exchange.getRequestURI().getPath());
+		}
+	}
+
+	/**
+	 * Counts the request, applies the latency and throws the injected failure, if any.
+	 */
+	private void begin(String operation) throws ApiError, InterruptedIOException {
+		AtomicInteger count = requestCounts.get(operation);
+		if (count == null) {
+			requestCounts.putIfAbsent(operation, new AtomicInteger());
+			count = requestCounts.get(operation);
+		}
+		count.incrementAndGet();
+
+		long latency = latencyMillis;
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while delaying " + operation);
+			}
+		}
+
+		Integer statusCode = nextFailure(operation);
+		if (statusCode == null) {
+			statusCode = nextFailure(ANY_OPERATION);
+		}
+		if (statusCode != null) {
+			String reason = statusCode == 429 ? "rateLimitExceeded" : statusCode / 100 == 5 ? "backendError"
+					: "injectedFailure";
+			throw new ApiError(statusCode, reason, "Injected failure of " + operation);
+		}
+	}
+
+	private void addFailure(String operation, Failure failure) {
+		synchronized (failures) {
+			List<Failure> operationFailures = failures.get(operation);
+			if (operationFailures == null) {
+				operationFailures = new ArrayList<Failure>();
+				failures.put(operation, operationFailures);
+			}
+			operationFailures.add(failure);
+		}
+	}
+
+	private Integer nextFailure(String operation) {
+		synchronized (failures) {
+			List<Failure> operationFailures = failures.get(operation);
+			if (operationFailures == null) {
+				return null;
+			}
+			for (Iterator<Failure> it = operationFailures.iterator(); it.hasNext(); ) {
+				Failure failure = it.next();
+				if (failure.remaining > 0) {
+					if (--failure.remaining == 0) {
+						it.remove();
+					}
+					return failure.statusCode;
+				}
+				if (failure.probability > 0 && random.nextDouble() < failure.probability) {
+					return failure.statusCode;
+				}
+			}
+			return null;
+		}
+	}
+
+	private FakeAppState app(String packageName) {
+		FakeAppState app = apps.get(packageName);
+		if (app == null) {
+			app = new FakeAppState();
+			apps.put(packageName, app);
+		}
+		return app;
+	}
+
+	private Edit edit(String packageName, String editId) throws ApiError {
+		Edit edit = edits.get(editId);
+		if (edit != null && edit.isExpired()) {
+			edits.remove(editId);
+			closedEdits.put(editId, "This Edit has expired.");
+			edit = null;
+		}
+		if (edit == null || !edit.packageName.equals(packageName)) {
+			String reason = closedEdits.get(editId);
+			throw new ApiError(404, "editNotFound", reason != null ? reason : "No edit with id " + editId);
+		}
+		return edit;
+	}
+
+	private void closeEdit(String editId, String reason) {
+		edits.remove(editId);
+		closedEdits.put(editId, reason);
+	}
+
+	private synchronized byte[] insertEdit(String packageName) throws IOException {
+		String editId = Integer.toString(nextEditId++);
+		Edit edit = new Edit(editId, packageName, app(packageName).copy(),
+				System.currentTimeMillis() + editTimeoutMillis);
+		edits.put(editId, edit);
+		return json(edit.toAppEdit());
+	}
+
+	private synchronized byte[] getEdit(String packageName, String editId) throws IOException, ApiError {
+		return json(edit(packageName, editId).toAppEdit());
+	}
+
+	private synchronized void deleteEdit(String packageName, String editId) throws ApiError {
+		edit(packageName, editId);
+		closeEdit(editId, "This Edit has been deleted.");
+	}
+
+	private synchronized byte[] validateEdit(String packageName, String editId) throws IOException, ApiError {
+		Edit edit = edit(packageName, editId);
+		String violation = edit.state.validate();
+		if (violation != null) {
+			throw new ApiError(403, "editValidationFailed", violation);
+		}
+		return json(edit.toAppEdit());
+	}
+
+	private synchronized byte[] commitEdit(String packageName, String editId) throws IOException, ApiError {
+		Edit edit = edit(packageName, editId);
+		String violation = edit.state.validate();
+		if (violation != null) {
+			throw new ApiError(403, "editValidationFailed", violation);
+		}
+		apps.put(packageName, edit.state);
+		closeEdit(editId, "This Edit has been committed.");
+		for (Edit other : new ArrayList<Edit>(edits.values())) {
+			if (other.packageName.equals(packageName)) {
+				closeEdit(other.id, "This Edit has been deleted because another edit was committed.");
+			}
+		}
+		return json(edit.toAppEdit());
+	}
+
+	private synchronized byte[] listApks(String packageName, String editId) throws IOException, ApiError {
+		return json(new ApksListResponse()
+				.setKind("androidpublisher#apksListResponse")
+				.setApks(new ArrayList<Apk>(edit(packageName, editId).state.apks.values())));
+	}
+
+	private synchronized byte[] listTracks(String packageName, String editId) throws IOException, ApiError {
+		return json(new TracksListResponse()
+				.setKind("androidpublisher#tracksListResponse")
+				.setTracks(new ArrayList<Track>(edit(packageName, editId).state.tracks.values())));
+	}
+
+	private synchronized byte[] getTrack(String packageName, String editId, String trackName)
+			throws IOException, ApiError {
+		Track track = edit(packageName, editId).state.tracks.get(trackName);
+		if (track == null) {
+			throw new ApiError(404, "notFound", "No track " + trackName);
+		}
+		return json(track);
+	}
+
+	private synchronized byte[] updateTrack(String packageName, String editId, String trackName, Track update,
+											boolean patch) throws IOException, ApiError {
+		FakeAppState state = edit(packageName, editId).state;
+		Track track = state.tracks.get(trackName);
+		if (track == null) {
+			throw new ApiError(400, "invalid", "Invalid track " + trackName);
+		}
+		Track updated = patch ? merge(track, update) : update;
+		updated.setTrack(trackName);
+		if (updated.getVersionCodes() == null) {
+			updated.setVersionCodes(new ArrayList<Integer>());
+		}
+		for (Integer versionCode : updated.getVersionCodes()) {
+			if (!state.apks.containsKey(versionCode)) {
+				throw new ApiError(403, "apkNotFound",
+						String.format("APK with version code %d does not exist", versionCode));
+			}
+		}
+		state.tracks.put(trackName, updated);
+		return json(updated);
+	}
+
+	private synchronized byte[] listListings(String packageName, String editId) throws IOException, ApiError {
+		return json(new ListingsListResponse()
+				.setKind("androidpublisher#listingsListResponse")
+				.setListings(new ArrayList<Listing>(edit(packageName, editId).state.listings.values())));
+	}
+
+	private synchronized byte[] getListing(String packageName, String editId, String language)
+			throws IOException, ApiError {
+		Listing listing = edit(packageName, editId).state.listings.get(language);
+		if (listing == null) {
+			throw new ApiError(404, "notFound", "No listing for " + language);
+		}
+		return json(listing);
+	}
+
+	private synchronized byte[] updateListing(String packageName, String editId, String language, Listing update,
+											  boolean patch) throws IOException, ApiError {
+		FakeAppState state = edit(packageName, editId).state;
+		Listing listing = state.listings.get(language);
+		if (patch && listing == null) {
+			throw new ApiError(404, "notFound", "No listing for " + language);
+		}
+		Listing updated = patch ? merge(listing, update) : update;
+		updated.setLanguage(language);
+		state.listings.put(language, updated);
+		return json(updated);
+	}
+
+	private synchronized void deleteListing(String packageName, String editId, String language) throws ApiError {
+		FakeAppState state = edit(packageName, editId).state;
+		if (language == null) {
+			state.listings.clear();
+		} else {
+			state.listings.remove(language);
+		}
+	}
+
+	private synchronized byte[] listApkListings(String packageName, String editId, int versionCode)
+			throws IOException, ApiError {
+		FakeAppState state = apkState(packageName, editId, versionCode);
+		List<ApkListing> listings = new ArrayList<ApkListing>();
+		for (Map.Entry<String, ApkListing> listing : state.apkListings.entrySet()) {
+			if (listing.getKey().startsWith(versionCode + "/")) {
+				listings.add(listing.getValue());
+			}
+		}
+		return json(new ApkListingsListResponse()
+				.setKind("androidpublisher#apkListingsListResponse")
+				.setListings(listings));
+	}
+
+	private synchronized byte[] getApkListing(String packageName, String editId, int versionCode, String language)
+			throws IOException, ApiError {
+		ApkListing listing = apkState(packageName, editId, versionCode).apkListings.get(versionCode + "/" + language);
+		if (listing == null) {
+			throw new ApiError(404, "notFound", "No release notes for " + language);
+		}
+		return json(listing);
+	}
+
+	private synchronized byte[] updateApkListing(String packageName, String editId, int versionCode,
+												 String language, ApkListing update, boolean patch)
+			throws IOException, ApiError {
+		FakeAppState state = apkState(packageName, editId, versionCode);
+		String key = versionCode + "/" + language;
+		ApkListing listing = state.apkListings.get(key);
+		if (patch && listing == null) {
+			throw new ApiError(404, "notFound", "No release notes for " + language);
+		}
+		ApkListing updated = patch ? merge(listing, update) : update;
+		updated.setLanguage(language);
+		state.apkListings.put(key, updated);
+		return json(updated);
+	}
+
+	private synchronized void deleteApkListing(String packageName, String editId, int versionCode, String language)
+			throws ApiError {
+		apkState(packageName, editId, versionCode).apkListings.remove(versionCode + "/" + language);
+	}
+
+	private synchronized byte[] getExpansionFile(String packageName, String editId, int versionCode, String type)
+			throws IOException, ApiError {
+		ExpansionFile expansionFile = apkState(packageName, editId, versionCode).expansionFiles
+				.get(versionCode + "/" + type);
+		if (expansionFile == null) {
+			throw new ApiError(404, "notFound", String.format("No %s expansion file for version code %d",
+					type, versionCode));
+		}
+		return json(expansionFile);
+	}
+
+	/**
+	 * Only references to the expansion file of another version code can be set without an upload.
+	 */
+	private synchronized byte[] updateExpansionFile(String packageName, String editId, int versionCode, String type,
+													ExpansionFile update, boolean patch) throws IOException, ApiError {
+		FakeAppState state = apkState(packageName, editId, versionCode);
+		String key = versionCode + "/" + type;
+		if (patch && !state.expansionFiles.containsKey(key)) {
+			throw new ApiError(404, "notFound", String.format("No %s expansion file for version code %d",
+					type, versionCode));
+		}
+		if (update.getReferencesVersion() == null) {
+			throw new ApiError(400, "invalid", "Expansion files can only reference the file of another APK");
+		}
+		if (!state.expansionFiles.containsKey(update.getReferencesVersion() + "/" + type)) {
+			throw new ApiError(400, "expansionFileNotFound", String.format(
+					"Version code %d has no %s expansion file to reference", update.getReferencesVersion(), type));
+		}
+		ExpansionFile expansionFile = new ExpansionFile().setReferencesVersion(update.getReferencesVersion());
+		state.expansionFiles.put(key, expansionFile);
+		return json(expansionFile);
+	}
+
+	private synchronized byte[] listImages(String packageName, String editId, String language, String imageType)
+			throws IOException, ApiError {
+		List<Image> images = new ArrayList<Image>();
+		for (Image image : imageState(packageName, editId, language, imageType)) {
+			images.add(image.clone());
+		}
+		return json(new ImagesListResponse().setImages(images));
+	}
+
+	/**
+	 * Deletes one image, or all images of the type if no id is given.
+	 */
+	private synchronized byte[] deleteImages(String packageName, String editId, String language, String imageType,
+											 String imageId) throws IOException, ApiError {
+		List<Image> images = imageState(packageName, editId, language, imageType);
+		if (imageId == null) {
+			ImagesDeleteAllResponse response = new ImagesDeleteAllResponse().setDeleted(new ArrayList<Image>(images));
+			images.clear();
+			return json(response);
+		}
+		for (Iterator<Image> it = images.iterator(); it.hasNext(); ) {
+			if (imageId.equals(it.next().getId())) {
+				it.remove();
+				return null;
+			}
+		}
+		throw new ApiError(404, "notFound", String.format("No image %s in the %s of %s", imageId, imageType,
+				language));
+	}
+
+	private List<Image> imageState(String packageName, String editId, String language, String imageType)
+			throws ApiError {
+		FakeAppState state = edit(packageName, editId).state;
+		String key = language + "/" + imageType;
+		List<Image> images = state.images.get(key);
+		if (images == null) {
+			images = new ArrayList<Image>();
+			state.images.put(key, images);
+		}
+		return images;
+	}
+
+	private FakeAppState apkState(String packageName, String editId, int versionCode) throws ApiError {
+		FakeAppState state = edit(packageName, editId).state;
+		if (!state.apks.containsKey(versionCode)) {
+			throw new ApiError(404, "apkNotFound",
+					String.format("APK with version code %d does not exist", versionCode));
+		}
+		return state;
+	}
+
+	private void startUpload(HttpExchange exchange, UploadSession session) throws IOException, ApiError {
+		synchronized (this) {
+			if (session.versionCode != null) {
+				apkState(session.packageName, session.editId, session.versionCode);
+			} else if (session.imageType != null) {
+				imageState(session.packageName, session.editId, session.language, session.imageType);
+			} else {
+				edit(session.packageName, session.editId);
+			}
+		}
+		String query = exchange.getRequestURI().getQuery();
+		if (query != null && query.contains("uploadType=resumable")) {
+			String sessionId = Integer.toString(nextSessionId.getAndIncrement());
+			sessions.put(sessionId, session);
+			drain(exchange.getRequestBody(), null);
+			exchange.getResponseHeaders().set("Location", getRootUrl() + SESSION_PATH.substring(1) + sessionId);
+			exchange.sendResponseHeaders(200, -1);
+		} else if (query != null && query.contains("uploadType=multipart")) {
+			throw new ApiError(400, "invalid", "Multipart uploads are not supported");
+		} else {
+			session.received = drain(requestBody(exchange), session.digest);
+			sendJson(exchange, completeUpload(session));
+		}
+	}
+
+	private void uploadChunk(HttpExchange exchange, String sessionId) throws IOException, ApiError {
+		UploadSession session = sessions.get(sessionId);
+		if (session == null) {
+			throw notFound(exchange.getRequestURI().getPath());
+		}
+		synchronized (session) {
+			String contentRange = exchange.getRequestHeaders().getFirst("Content-Range");
+			Matcher matcher = contentRange != null ? CONTENT_RANGE.matcher(contentRange) : null;
+			if (matcher != null && matcher.matches() && Long.parseLong(matcher.group(1)) == session.received) {
+				session.received += drain(requestBody(exchange), session.digest);
+				if (session.received == Long.parseLong(matcher.group(3))) {
+					sessions.remove(sessionId);
+					sendJson(exchange, completeUpload(session));
+					return;
+				}
+			} else {
+				// A status query ("bytes */total") or a chunk that does not continue the upload
+				drain(exchange.getRequestBody(), null);
+			}
+			if (session.received > 0) {
+				exchange.getResponseHeaders().set("Range", "bytes=0-" + (session.received - 1));
+			}
+			exchange.sendResponseHeaders(RESUME_INCOMPLETE, -1);
+		}
+	}
+
+	private synchronized byte[] completeUpload(UploadSession session) throws IOException, ApiError {
+		if (session.expansionFileType != null) {
+			FakeAppState state = apkState(session.packageName, session.editId, session.versionCode);
+			ExpansionFile expansionFile = new ExpansionFile().setFileSize(session.received);
+			state.expansionFiles.put(session.versionCode + "/" + session.expansionFileType, expansionFile);
+			return json(new ExpansionFilesUploadResponse().setExpansionFile(expansionFile));
+		}
+		String sha1 = Digests.toHex(session.digest.digest());
+		if (session.imageType != null) {
+			List<Image> images = imageState(session.packageName, session.editId, session.language,
+					session.imageType);
+			if (SINGLE_IMAGE_TYPES.contains(session.imageType)) {
+				images.clear();
+			} else if (images.size() >= MAX_SCREENSHOTS) {
+				throw new ApiError(400, "imageLimitReached", String.format(
+						"The %s of %s already has %d images", session.imageType, session.language, MAX_SCREENSHOTS));
+			}
+			String id = Integer.toString(nextImageId.getAndIncrement());
+			Image image = new Image().setId(id).setSha1(sha1).setUrl(getRootUrl() + "images/" + id);
+			images.add(image);
+			return json(new ImagesUploadResponse().setImage(image));
+		}
+		FakeAppState state = edit(session.packageName, session.editId).state;
+		if (state.findApk(sha1) != null) {
+			throw new ApiError(403, "apkUpgradeVersionConflict",
+					"APK specifies a version code that has already been used.");
+		}
+		int versionCode = state.nextVersionCode();
+		Apk apk = new Apk().setVersionCode(versionCode).setBinary(new ApkBinary().setSha1(sha1));
+		state.apks.put(versionCode, apk);
+		return json(apk);
+	}
+
+	/**
+	 * Sends the requests of a batch one after the other to this server, as the batch endpoint of Google Play does,
+	 * and answers with their responses in one multipart response.
+	 */
+	private void executeBatch(HttpExchange exchange) throws IOException, ApiError {
+		String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+		int boundaryIndex = contentType != null ? contentType.indexOf("boundary=") : -1;
+		if (boundaryIndex < 0) {
+			throw new ApiError(400, "invalid", "Batch requests must be multipart/mixed");
+		}
+		String boundary = "--" + contentType.substring(boundaryIndex + "boundary=".length()).replace("\"", "");
+		String body = new String(readFully(requestBody(exchange)), "UTF-8");
+
+		StringBuilder response = new StringBuilder();
+		int responseIndex = 0;
+		for (String part : body.split(Pattern.quote(boundary))) {
+			// Skip the preamble and the closing delimiter
+			int partHeadersEnd = part.indexOf("\r\n\r\n");
+			if (part.startsWith("--") || partHeadersEnd < 0) {
+				continue;
+			}
+			// Each part holds an HTTP request: request line, headers, a blank line and the content
+			String request = part.substring(partHeadersEnd + 4);
+			int requestHeadersEnd = request.indexOf("\r\n\r\n");
+			String[] requestHead = (requestHeadersEnd < 0 ? request : request.substring(0, requestHeadersEnd))
+					.split("\r\n");
+			String content = requestHeadersEnd < 0 ? "" : request.substring(requestHeadersEnd + 4);
+			if (content.endsWith("\r\n")) {
+				content = content.substring(0, content.length() - 2);
+			}
+			String[] requestLine = requestHead[0].split(" ");
+			String url = requestLine[1].startsWith("/") ? getRootUrl() + requestLine[1].substring(1) : requestLine[1];
+
+			// The parts are dispatched in order on the thread of the batch request
+			BatchPartExchange partExchange = new BatchPartExchange(requestLine[0], URI.create(url),
+					content.getBytes("UTF-8"));
+			for (int i = 1; i < requestHead.length; i++) {
+				int colon = requestHead[i].indexOf(':');
+				if (colon > 0) {
+					partExchange.getRequestHeaders().add(requestHead[i].substring(0, colon).trim(),
+							requestHead[i].substring(colon + 1).trim());
+				}
+			}
+			respond(partExchange);
+			if (partExchange.statusCode < 0) {
+				// A part dropping its connection drops the connection of the batch
+				throw new ApiError(DROP_CONNECTION, "dropped", "Dropped the connection of a batch part");
+			}
+
+			byte[] partResponse = partExchange.responseBody.toByteArray();
+			response.append("--").append(BATCH_BOUNDARY).append("\r\n")
+					.append("Content-Type: application/http\r\n")
+					.append("Content-ID: <response-").append(++responseIndex).append(">\r\n\r\n")
+					.append("HTTP/1.1 ").append(partExchange.statusCode).append("\r\n");
+			if (partResponse.length > 0) {
+				response.append("Content-Type: application/json; charset=UTF-8\r\n")
+						.append("Content-Length: ").append(partResponse.length).append("\r\n");
+			}
+			response.append("\r\n").append(new String(partResponse, "UTF-8")).append("\r\n");
+		}
+		response.append("--").append(BATCH_BOUNDARY).append("--\r\n");
+
+		byte[] responseBody = response.toString().getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "multipart/mixed; boundary=" + BATCH_BOUNDARY);
+		exchange.sendResponseHeaders(200, responseBody.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(responseBody);
+		out.close();
+	}
+
+	/**
+	 * Copies the fields set in the update over the current value, as a patch request does.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T extends GenericJson> T merge(T current, T update) {
+		T merged = (T) current.clone();
+		for (Map.Entry<String, Object> field : update.entrySet()) {
+			if (field.getValue() != null) {
+				merged.set(field.getKey(), field.getValue());
+			}
+		}
+		return merged;
+	}
+
+	private static int parseVersionCode(String versionCode) throws ApiError {
+		try {
+			return Integer.parseInt(versionCode);
+		} catch (NumberFormatException e) {
+			throw new ApiError(400, "invalid", "Invalid version code " + versionCode);
+		}
+	}
+
+	private static ApiError notFound(String path) {
+		return new ApiError(404, "notFound", "Not found: " + path);
+	}
+
+	private byte[] json(Object value) throws IOException {
+		return jsonFactory.toByteArray(value);
+	}
+
+	/**
+	 * The client library compresses request content unless it is sent in chunks.
+	 */
+	private static InputStream requestBody(HttpExchange exchange) throws IOException {
+		if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+			return new GZIPInputStream(exchange.getRequestBody());
+		}
+		return exchange.getRequestBody();
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	private static long drain(InputStream in, MessageDigest digest) throws IOException {
+		byte[] buffer = new byte[65536];
+		long total = 0;
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			if (digest != null) {
+				digest.update(buffer, 0, read);
+			}
+			total += read;
+		}
+		return total;
+	}
+
+	private static void sendJson(HttpExchange exchange, byte[] body) throws IOException {
+		sendJson(exchange, 200, body);
+	}
+
+	private static void sendJson(HttpExchange exchange, int statusCode, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+		exchange.sendResponseHeaders(statusCode, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	private static void sendNoContent(HttpExchange exchange) throws IOException {
+		exchange.sendResponseHeaders(204, -1);
+	}
+
+	private void sendError(HttpExchange exchange, ApiError e) throws IOException {
+		try {
+			drain(exchange.getRequestBody(), null);
+		} catch (IOException closed) {
+			// The JSON parser closes the body once it has read it
+		}
+		GoogleJsonError.ErrorInfo errorInfo = new GoogleJsonError.ErrorInfo();
+		errorInfo.setDomain("global");
+		errorInfo.setReason(e.reason);
+		errorInfo.setMessage(e.getMessage());
+		GoogleJsonError error = new GoogleJsonError();
+		error.setCode(e.statusCode);
+		error.setMessage(e.getMessage());
+		error.setErrors(Collections.singletonList(errorInfo));
+		GenericJson response = new GenericJson();
+		response.set("error", error);
+		sendJson(exchange, e.statusCode, json(response));
+	}
+
+	private static class Edit {
+		final String id;
+		final String packageName;
+		final FakeAppState state;
+		final long expiryMillis;
+
+		Edit(String id, String packageName, FakeAppState state, long expiryMillis) {
+			this.id = id;
+			this.packageName = packageName;
+			this.state = state;
+			this.expiryMillis = expiryMillis;
+		}
+
+		boolean isExpired() {
+			return System.currentTimeMillis() >= expiryMillis;
+		}
+
+		AppEdit toAppEdit() {
+			return new AppEdit().setId(id).setExpiryTimeSeconds(Long.toString(expiryMillis / 1000));
+		}
+	}
+
+	private static class UploadSession {
+		final String packageName;
+		final String editId;
+		final MessageDigest digest = Digests.newSha1();
+		long received;
+		/** The APK and type of an expansion file upload, {@code null} for other uploads. */
+		Integer versionCode;
+		String expansionFileType;
+		/** The listing and type of an image upload, {@code null} for other uploads. */
+		String language;
+		String imageType;
+
+		UploadSession(String packageName, String editId) {
+			this.packageName = packageName;
+			this.editId = editId;
+		}
+	}
+
+	private static class Failure {
+		final int statusCode;
+		final double probability;
+		int remaining;
+
+		Failure(int statusCode, int remaining, double probability) {
+			this.statusCode = statusCode;
+			this.remaining = remaining;
+			this.probability = probability;
+		}
+	}
+
+	/**
+	 * In-memory exchange of one part of a batch request, so it goes through the same dispatching as other requests.
+	 */
+	private static class BatchPartExchange extends HttpExchange {
+		private final String method;
+		private final URI uri;
+		private final Headers requestHeaders = new Headers();
+		private final Headers responseHeaders = new Headers();
+		private final Map<String, Object> attributes = new HashMap<String, Object>();
+		private InputStream requestBody;
+		private final ByteArrayOutputStream responseBody = new ByteArrayOutputStream();
+		private int statusCode = -1;
+
+		BatchPartExchange(String method, URI uri, byte[] content) {
+			this.method = method;
+			this.uri = uri;
+			this.requestBody = new ByteArrayInputStream(content);
+		}
+
+		@Override
+		public Headers getRequestHeaders() {
+			return requestHeaders;
+		}
+
+		@Override
+		public Headers getResponseHeaders() {
+			return responseHeaders;
+		}
+
+		@Override
+		public URI getRequestURI() {
+			return uri;
+		}
+
+		@Override
+		public String getRequestMethod() {
+			return method;
+		}
+
+		@Override
+		public HttpContext getHttpContext() {
+			return null;
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public InputStream getRequestBody() {
+			return requestBody;
+		}
+
+		@Override
+		public OutputStream getResponseBody() {
+			return responseBody;
+		}
+
+		@Override
+		public void sendResponseHeaders(int statusCode, long length) {
+			this.statusCode = statusCode;
+		}
+
+		@Override
+		public InetSocketAddress getRemoteAddress() {
+			return null;
+		}
+
+		@Override
+		public int getResponseCode() {
+			return statusCode;
+		}
+
+		@Override
+		public InetSocketAddress getLocalAddress() {
+			return null;
+		}
+
+		@Override
+		public String getProtocol() {
+			return "HTTP/1.1";
+		}
+
+		@Override
+		public Object getAttribute(String name) {
+			return attributes.get(name);
+		}
+
+		@Override
+		public void setAttribute(String name, Object value) {
+			attributes.put(name, value);
+		}
+
+		@Override
+		public void setStreams(InputStream in, OutputStream out) {
+			if (in != null) {
+				requestBody = in;
+			}
+		}
+
+		@Override
+		public HttpPrincipal getPrincipal() {
+			return null;
+		}
+	}
+
+	private static class ApiError extends Exception {
+		final int statusCode;
+		final String reason;
+
+		ApiError(int statusCode, String reason, String message) {
+			super(message);
+			this.statusCode = statusCode;
+			this.reason = reason;
+		}
+	}
+}